@@ -0,0 +1,105 @@
+#!/bin/sh
+# Starts the application against the stub predictor, drives it with LoadTestDriver and collects the report
+# and a Prometheus scrape of the server's own metrics. Build first:
+#   ./mvnw install -DskipTests && (cd benchmarks && ../mvnw package)
+# then from the benchmarks directory:
+#   loadtest/run-loadtest.sh [driver options]
+# e.g. loadtest/run-loadtest.sh --users 50 --jobs-per-user 10 --mode sse
+#
+# Tune with:
+#   PORT             server port (default 18080)
+#   CONCURRENT_JOBS  idrbind.settings.concurrent-jobs for the server (default 4)
+#   WORKERS          run the server as coordinator with this many local worker processes
+#                    (ports PORT+1 and up, CONCURRENT_JOBS slots each), 0 to run jobs in-process (default 0)
+#   REPORT_DIR       where reports go (default loadtest-<timestamp>)
+#   DAEMON           1 to run the stub as a warm predictor daemon instead of once per job (default 0)
+#   STUB_*           passed through to stub-predictor.sh
+
+set -e
+
+HERE=$(cd "$(dirname "$0")" && pwd)
+BENCHMARKS=$(dirname "$HERE")
+WAR="$BENCHMARKS/../target/idrbind-0.0.1-SNAPSHOT.war"
+JAR="$BENCHMARKS/target/benchmarks.jar"
+
+PORT="${PORT:-18080}"
+CONCURRENT_JOBS="${CONCURRENT_JOBS:-4}"
+WORKERS="${WORKERS:-0}"
+DAEMON_COMMAND=
+if [ "${DAEMON:-0}" = "1" ]; then
+    DAEMON_COMMAND=stub-predictor-daemon.sh
+fi
+REPORT_DIR="${REPORT_DIR:-loadtest-$(date +%Y%m%d-%H%M%S)}"
+URL="http://localhost:$PORT"
+
+for f in "$WAR" "$JAR"; do
+    if [ ! -f "$f" ]; then
+        echo "Missing $f, build the application and the benchmarks module first" >&2
+        exit 1
+    fi
+done
+
+WORK=$(mktemp -d)
+mkdir -p "$REPORT_DIR" "$WORK/jobs" "$WORK/results" "$WORK/journal"
+
+MODE=standalone
+if [ "$WORKERS" -gt 0 ]; then
+    MODE=coordinator
+fi
+
+java -jar "$WAR" \
+    --server.port="$PORT" \
+    --idrbind.settings.mode="$MODE" \
+    --idrbind.settings.command=stub-predictor.sh \
+    --idrbind.settings.predictor-daemon-command="$DAEMON_COMMAND" \
+    --idrbind.settings.command-working-directory="$HERE" \
+    --idrbind.settings.jobs-directory="$WORK/jobs/" \
+    --idrbind.settings.results-directory="$WORK/results/" \
+    --idrbind.settings.journal-directory="$WORK/journal/" \
+    --idrbind.settings.concurrent-jobs="$CONCURRENT_JOBS" \
+    > "$REPORT_DIR/server.log" 2>&1 &
+SERVER=$!
+PIDS="$SERVER"
+
+i=1
+while [ $i -le "$WORKERS" ]; do
+    mkdir -p "$WORK/worker$i"
+    java -jar "$WAR" \
+        --server.port=$((PORT + i)) \
+        --idrbind.settings.mode=worker \
+        --idrbind.settings.coordinator-url="$URL" \
+        --idrbind.settings.worker-id="worker$i" \
+        --idrbind.settings.worker-slots="$CONCURRENT_JOBS" \
+        --idrbind.settings.command=stub-predictor.sh \
+        --idrbind.settings.predictor-daemon-command="$DAEMON_COMMAND" \
+        --idrbind.settings.command-working-directory="$HERE" \
+        --idrbind.settings.jobs-directory="$WORK/worker$i/" \
+        --idrbind.settings.journal-enabled=false \
+        > "$REPORT_DIR/worker$i.log" 2>&1 &
+    PIDS="$PIDS $!"
+    i=$((i + 1))
+done
+
+cleanup() {
+    kill $PIDS 2>/dev/null || true
+    wait $PIDS 2>/dev/null || true
+    rm -rf "$WORK"
+}
+trap cleanup EXIT INT TERM
+
+echo "Waiting for server on $URL"
+i=0
+until curl -sf "$URL/actuator/health" > /dev/null; do
+    i=$((i + 1))
+    if [ $i -gt 120 ] || ! kill -0 "$SERVER" 2>/dev/null; then
+        echo "Server did not start, see $REPORT_DIR/server.log" >&2
+        exit 1
+    fi
+    sleep 1
+done
+
+java -cp "$JAR" com.jacobsonmt.idrbind.loadtest.LoadTestDriver \
+    --url "$URL" --report "$REPORT_DIR/report.json" "$@"
+
+curl -sf "$URL/actuator/prometheus" > "$REPORT_DIR/prometheus.txt" || echo "Could not scrape metrics" >&2
+echo "Reports in $REPORT_DIR"
@@ -0,0 +1,30 @@
+#!/bin/sh
+# Warm variant of stub-predictor.sh for idrbind.settings.predictor-daemon-command. Pays STUB_STARTUP once,
+# then answers the daemon protocol on stdin/stdout:
+#   RUN <input.pdb>\t<chains>\t<output.pdb>\t<output.csv>   ->   OK | ERROR <message>
+#   PING                                                    ->   PONG
+# Each RUN is handled by stub-predictor.sh without its startup, so the same STUB_* settings apply.
+
+HERE=$(cd "$(dirname "$0")" && pwd)
+TAB=$(printf '\t')
+
+sleep "${STUB_STARTUP:-0}"
+
+while IFS= read -r line; do
+    case "$line" in
+        PING)
+            echo PONG
+            ;;
+        RUN\ *)
+            args=${line#RUN }
+            IFS="$TAB" read -r input chains output csv <<ARGS
+$args
+ARGS
+            if STUB_STARTUP=0 "$HERE/stub-predictor.sh" "$input" "$chains" "$output" "$csv" > /dev/null; then
+                echo OK
+            else
+                echo "ERROR stub predictor failed"
+            fi
+            ;;
+    esac
+done
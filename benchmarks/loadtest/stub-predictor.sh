@@ -0,0 +1,45 @@
+#!/bin/sh
+# Stand-in for the IDRBind predictor, called like the real one:
+#   stub-predictor.sh <input.pdb> <chains> <output.pdb> <output.csv>
+# Sleeps, then writes a scored copy of the structure (score in the B-factor column) and one CSV row
+# per residue. Tune with:
+#   STUB_SECONDS       base run time in seconds (default 5)
+#   STUB_JITTER        extra random run time, up to this many seconds (default 2)
+#   STUB_FAILURE_RATE  percentage of runs that exit with an error (default 0)
+#   STUB_CPU           1 to spin a core for the run time instead of sleeping (default 0)
+#   STUB_STARTUP       seconds of simulated interpreter and model loading before each run (default 0)
+
+INPUT_PDB="$1"
+OUTPUT_PDB="$3"
+OUTPUT_CSV="$4"
+
+SECONDS_BASE="${STUB_SECONDS:-5}"
+JITTER="${STUB_JITTER:-2}"
+FAILURE_RATE="${STUB_FAILURE_RATE:-0}"
+
+sleep "${STUB_STARTUP:-0}"
+
+# Seeded by pid, runs starting in the same second must not all draw the same numbers
+RUN_TIME=$(awk -v seed=$$ -v base="$SECONDS_BASE" -v jitter="$JITTER" 'BEGIN { srand(seed); printf "%.2f", base + rand() * jitter }')
+
+if [ "${STUB_CPU:-0}" = "1" ]; then
+    timeout "$RUN_TIME" sh -c 'while :; do :; done'
+else
+    sleep "$RUN_TIME"
+fi
+
+if [ "$(awk -v seed=$(( $$ * 7 + 1 )) 'BEGIN { srand(seed); print int(rand() * 100) }')" -lt "$FAILURE_RATE" ]; then
+    echo "stub predictor: simulated failure" >&2
+    exit 1
+fi
+
+awk -v seed=$$ -v csv="$OUTPUT_CSV" '
+    BEGIN { srand(seed); print "chain,residue,score" > csv }
+    /^(ATOM  |HETATM)/ {
+        key = substr($0, 22, 6)
+        if (key != last) { score = rand(); last = key; print substr($0, 22, 1) "," substr($0, 23, 5) + 0 "," score > csv }
+        printf "%s%6.2f%s\n", substr($0, 1, 60), score, substr($0, 67)
+        next
+    }
+    { print }
+' "$INPUT_PDB" > "$OUTPUT_PDB"
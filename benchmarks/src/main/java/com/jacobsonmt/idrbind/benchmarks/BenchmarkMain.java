@@ -0,0 +1,25 @@
+package com.jacobsonmt.idrbind.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// JMH's own launcher, except results are written as JSON to jmh-result.json unless asked otherwise,
+// so every run leaves something to compare against
+public class BenchmarkMain {
+
+    public static void main( String[] args ) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions( args );
+        ChainedOptionsBuilder options = new OptionsBuilder().parent( commandLine );
+        if ( !commandLine.getResultFormat().hasValue() ) {
+            options.resultFormat( ResultFormatType.JSON );
+        }
+        if ( !commandLine.getResult().hasValue() ) {
+            options.result( "jmh-result.json" );
+        }
+        new Runner( options.build() ).run();
+    }
+
+}
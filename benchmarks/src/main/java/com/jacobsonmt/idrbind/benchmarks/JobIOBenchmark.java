@@ -0,0 +1,67 @@
+package com.jacobsonmt.idrbind.benchmarks;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.services.BenchmarkFixtures;
+import com.jacobsonmt.idrbind.services.JobManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Reading and writing structures of realistic sizes: the string helpers on IDRBindJob, and the streaming
+// path uploads take (parse, hash and spool into a job directory).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JobIOBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    private int sizeKb;
+
+    private Path root;
+    private JobManager jobManager;
+    private String structure;
+    private byte[] structureBytes;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory( "idrbind-bench" );
+        jobManager = BenchmarkFixtures.jobManager( BenchmarkFixtures.settings( root ) );
+        structure = BenchmarkFixtures.pdb( sizeKb * 1024 );
+        structureBytes = structure.getBytes( StandardCharsets.UTF_8 );
+        target = root.resolve( "written.pdb" ).toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.destroy( jobManager, root );
+    }
+
+    @Benchmark
+    public String inputStreamToString() throws IOException {
+        return IDRBindJob.inputStreamToString( new ByteArrayInputStream( structureBytes ) );
+    }
+
+    @Benchmark
+    public File writeToFile() {
+        BenchmarkFixtures.invoke( IDRBindJob.class, "writeToFile", target, structure );
+        return target;
+    }
+
+    @Benchmark
+    public IDRBindJob spoolUpload() throws IOException {
+        IDRBindJob job = jobManager.createJob( "bench", "bench", new ByteArrayInputStream( structureBytes ), "A", "", false );
+        jobManager.discard( job );
+        return job;
+    }
+
+}
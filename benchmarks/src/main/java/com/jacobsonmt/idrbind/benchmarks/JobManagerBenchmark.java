@@ -0,0 +1,70 @@
+package com.jacobsonmt.idrbind.benchmarks;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.model.IDRBindJobResult;
+import com.jacobsonmt.idrbind.services.BenchmarkFixtures;
+import com.jacobsonmt.idrbind.services.JobManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Submission and completion bookkeeping with several request threads at once. The single worker is kept
+// busy by a sleeping predictor, so submitted jobs go through validation, spooling and the user queues and
+// stay there, and completions run everything JobManager does after a job finishes.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class JobManagerBenchmark {
+
+    private Path root;
+    private JobManager jobManager;
+    private String structure;
+    private final AtomicLong counter = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class User {
+        private static final AtomicLong users = new AtomicLong();
+        String userId = "10.0.0." + users.incrementAndGet();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory( "idrbind-bench" );
+        jobManager = BenchmarkFixtures.jobManager( BenchmarkFixtures.settings( root ) );
+        structure = BenchmarkFixtures.pdb( 16 * 1024 );
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.destroy( jobManager, root );
+    }
+
+    @Benchmark
+    public IDRBindJob submit( User user ) {
+        // Unique header so every job misses the cache and doesn't attach to an identical one
+        long n = counter.incrementAndGet();
+        IDRBindJob job = jobManager.createJob( user.userId, "bench-" + n, "REMARK " + n + "\n" + structure,
+                "A", "", false );
+        jobManager.submit( job );
+        return job;
+    }
+
+    @Benchmark
+    public IDRBindJob complete() {
+        IDRBindJob job = BenchmarkFixtures.completedJob( (int) counter.incrementAndGet() );
+        job.setCacheKey( job.getJobId() );
+        job.setExecutionTime( 60 );
+        job.setResult( IDRBindJobResult.EMPTY );
+        jobManager.onJobComplete( job, IDRBindJobResult.EMPTY );
+        return job;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.jacobsonmt.idrbind.benchmarks;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.services.BenchmarkFixtures;
+import com.jacobsonmt.idrbind.services.JobManager;
+import com.jacobsonmt.idrbind.services.PublicJobView;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The public queue at different numbers of saved jobs: an unchanged listing, a listing right after a job
+// changed (the view is rebuilt) and the paged queries behind the queue page.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublicJobsBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int savedJobs;
+
+    private Path root;
+    private JobManager jobManager;
+    private PublicJobView publicJobView;
+    private IDRBindJob changing;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory( "idrbind-bench" );
+        jobManager = BenchmarkFixtures.jobManager( BenchmarkFixtures.settings( root ) );
+        publicJobView = BenchmarkFixtures.publicJobView( jobManager );
+        for ( int i = 0; i < savedJobs; i++ ) {
+            publicJobView.update( BenchmarkFixtures.completedJob( i ) );
+        }
+        changing = BenchmarkFixtures.completedJob( savedJobs / 2 );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.destroy( jobManager, root );
+    }
+
+    @Benchmark
+    public List<IDRBindJob.IDRBindJobVO> listPublicJobs() {
+        return jobManager.listPublicJobs();
+    }
+
+    @Benchmark
+    public List<IDRBindJob.IDRBindJobVO> listPublicJobsAfterChange() {
+        publicJobView.update( changing );
+        return jobManager.listPublicJobs();
+    }
+
+    @Benchmark
+    public PublicJobView.Page firstPage() {
+        return publicJobView.query( null, null, null, null, PublicJobView.SortColumn.DEFAULT, true, 0, 25 );
+    }
+
+    @Benchmark
+    public PublicJobView.Page failedByLabel() {
+        return publicJobView.query( PublicJobView.State.FAILED, null, null, null, PublicJobView.SortColumn.LABEL, true, 100, 25 );
+    }
+
+}
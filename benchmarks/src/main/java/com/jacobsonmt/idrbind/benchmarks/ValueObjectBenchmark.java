@@ -0,0 +1,35 @@
+package com.jacobsonmt.idrbind.benchmarks;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.services.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of turning a job into what the views and REST endpoints serve
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValueObjectBenchmark {
+
+    private IDRBindJob job;
+
+    @Setup
+    public void setUp() {
+        job = BenchmarkFixtures.completedJob( 42 );
+    }
+
+    @Benchmark
+    public IDRBindJob.IDRBindJobVO toValueObject() {
+        return job.toValueObject( false );
+    }
+
+    @Benchmark
+    public IDRBindJob.IDRBindJobVO toValueObjectObfuscated() {
+        return job.toValueObject( true );
+    }
+
+}
@@ -0,0 +1,366 @@
+package com.jacobsonmt.idrbind.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Drives a running server the way users do. Simulated users submit through the web form or the REST API
+// (mixed by --web-fraction), then follow their jobs by polling or over the event stream until they finish.
+// Reports submit latency, queue wait (submitted until first seen running), end-to-end time and error rates.
+//
+//   java -cp target/benchmarks.jar com.jacobsonmt.idrbind.loadtest.LoadTestDriver --url http://localhost:8080 \
+//        --users 50 --jobs-per-user 10 --mode sse --report loadtest-report.json
+public class LoadTestDriver {
+
+    private static final Pattern JOB_LINK = Pattern.compile( "job/([0-9a-f\\-]{36})" );
+
+    private final Map<String, String> options;
+    private final String url;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<JobRun> runs = Collections.synchronizedList( new ArrayList<>() );
+    private final AtomicInteger submitErrors = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    private LoadTestDriver( Map<String, String> options ) {
+        this.options = options;
+        this.url = option( "url", "http://localhost:8080" ).replaceAll( "/$", "" );
+    }
+
+    public static void main( String[] args ) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for ( int i = 0; i + 1 < args.length; i += 2 ) {
+            options.put( args[i].replaceFirst( "^--", "" ), args[i + 1] );
+        }
+        new LoadTestDriver( options ).run();
+    }
+
+    private void run() throws Exception {
+        int users = Integer.parseInt( option( "users", "20" ) );
+        int jobsPerUser = Integer.parseInt( option( "jobs-per-user", "5" ) );
+        long thinkMillis = Long.parseLong( option( "think-ms", "500" ) );
+        double webFraction = Double.parseDouble( option( "web-fraction", "0.3" ) );
+        String structure = structure( Integer.parseInt( option( "pdb-kb", "64" ) ) * 1024 );
+
+        ExecutorService userThreads = Executors.newFixedThreadPool( users );
+        ExecutorService watchers = Executors.newCachedThreadPool();
+        List<Future<?>> watches = Collections.synchronizedList( new ArrayList<>() );
+
+        long start = System.nanoTime();
+        for ( int u = 0; u < users; u++ ) {
+            int user = u;
+            userThreads.submit( () -> {
+                Random random = new Random( user );
+                for ( int j = 0; j < jobsPerUser; j++ ) {
+                    JobRun job = new JobRun( "user" + user + "-job" + j, user, random.nextDouble() < webFraction );
+                    // Unique remark so no job is answered from the result cache
+                    String pdb = "REMARK   1 LOAD TEST " + UUID.randomUUID() + "\n" + structure;
+                    if ( submit( job, pdb ) ) {
+                        runs.add( job );
+                        watches.add( watchers.submit( () -> watch( job ) ) );
+                    }
+                    sleep( thinkMillis );
+                }
+            } );
+        }
+        userThreads.shutdown();
+        userThreads.awaitTermination( 1, TimeUnit.DAYS );
+        for ( Future<?> watch : new ArrayList<>( watches ) ) {
+            watch.get();
+        }
+        watchers.shutdown();
+        double seconds = ( System.nanoTime() - start ) / 1e9;
+
+        report( users * jobsPerUser, seconds );
+    }
+
+    // Web form or REST POST, records the job id and how long submission took
+    private boolean submit( JobRun job, String pdb ) {
+        job.submitStart = System.nanoTime();
+        try {
+            if ( job.web ) {
+                job.jobId = submitWeb( job, pdb );
+            } else {
+                job.jobId = submitRest( job, pdb );
+            }
+        } catch ( IOException e ) {
+            submitErrors.incrementAndGet();
+            log( "Submit failed for " + job.label + ": " + e.getMessage() );
+            return false;
+        } finally {
+            job.submitEnd = System.nanoTime();
+        }
+
+        if ( job.jobId == null ) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private String submitRest( JobRun job, String pdb ) throws IOException {
+        // The REST API uses the label as user id
+        String query = "label=" + encode( "user" + job.user ) + "&proteinChain=" + encode( option( "chains", "A" ) );
+        HttpURLConnection connection = open( "/api/submitJob?" + query );
+        connection.setRequestMethod( "POST" );
+        connection.setDoOutput( true );
+        connection.setRequestProperty( "Content-Type", "chemical/x-pdb" );
+        try ( OutputStream out = connection.getOutputStream() ) {
+            out.write( pdb.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        String body = read( connection );
+        if ( connection.getResponseCode() != 200 || !body.startsWith( "Job Submitted: " ) ) {
+            log( "Rejected " + job.label + ": " + connection.getResponseCode() + " " + body );
+            return null;
+        }
+        return body.substring( "Job Submitted: ".length() ).trim();
+    }
+
+    // Posts the upload form, then follows the redirect with the session cookie to read the flash message
+    private String submitWeb( JobRun job, String pdb ) throws IOException {
+        String boundary = "----loadtest" + UUID.randomUUID().toString().replace( "-", "" );
+        HttpURLConnection connection = open( "/" );
+        connection.setRequestMethod( "POST" );
+        connection.setDoOutput( true );
+        connection.setInstanceFollowRedirects( false );
+        connection.setRequestProperty( "Content-Type", "multipart/form-data; boundary=" + boundary );
+        // The web form uses the client address as user id
+        connection.setRequestProperty( "X-FORWARDED-FOR", "10.1." + ( job.user / 250 ) + "." + ( job.user % 250 ) );
+        try ( Writer out = new OutputStreamWriter( connection.getOutputStream(), StandardCharsets.UTF_8 ) ) {
+            part( out, boundary, "label", null, job.label );
+            part( out, boundary, "pdbFile", "structure.pdb", pdb );
+            part( out, boundary, "sequence", "sequence.txt", option( "chains", "A" ) );
+            out.write( "--" + boundary + "--\r\n" );
+        }
+        int status = connection.getResponseCode();
+        String location = connection.getHeaderField( "Location" );
+        String cookie = connection.getHeaderField( "Set-Cookie" );
+        read( connection );
+        if ( status != 302 || location == null ) {
+            throw new IOException( "Unexpected response " + status );
+        }
+
+        HttpURLConnection page = (HttpURLConnection) new URL( new URL( url + "/" ), location ).openConnection();
+        if ( cookie != null ) {
+            page.setRequestProperty( "Cookie", cookie.split( ";", 2 )[0] );
+        }
+        Matcher matcher = JOB_LINK.matcher( read( page ) );
+        if ( !matcher.find() ) {
+            log( "Rejected " + job.label + " (no job link in response)" );
+            return null;
+        }
+        return matcher.group( 1 );
+    }
+
+    private void watch( JobRun job ) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( Long.parseLong( option( "timeout-s", "3600" ) ) );
+        try {
+            if ( option( "mode", "poll" ).equals( "sse" ) ) {
+                watchEvents( job );
+            } else {
+                long interval = Long.parseLong( option( "poll-ms", "1000" ) );
+                while ( job.completed == 0 && System.nanoTime() < deadline ) {
+                    HttpURLConnection connection = open( "/api/job/" + job.jobId );
+                    observe( job, mapper.readTree( read( connection ) ) );
+                    if ( job.completed == 0 ) {
+                        sleep( interval );
+                    }
+                }
+            }
+        } catch ( IOException e ) {
+            job.error = e.getMessage();
+        }
+        if ( job.completed == 0 && job.error == null ) {
+            job.error = "Timed out";
+        }
+    }
+
+    private void watchEvents( JobRun job ) throws IOException {
+        HttpURLConnection connection = open( "/api/job/" + job.jobId + "/events" );
+        connection.setRequestProperty( "Accept", "text/event-stream" );
+        connection.setReadTimeout( (int) TimeUnit.SECONDS.toMillis( Long.parseLong( option( "timeout-s", "3600" ) ) ) );
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( connection.getInputStream(), StandardCharsets.UTF_8 ) ) ) {
+            String line;
+            while ( job.completed == 0 && ( line = reader.readLine() ) != null ) {
+                if ( line.startsWith( "data:" ) ) {
+                    observe( job, mapper.readTree( line.substring( 5 ) ) );
+                }
+            }
+        }
+    }
+
+    private void observe( JobRun job, JsonNode state ) {
+        if ( state == null || state.isMissingNode() || state.isNull() ) {
+            return;
+        }
+        long now = System.nanoTime();
+        boolean complete = state.path( "complete" ).asBoolean();
+        if ( job.started == 0 && ( state.path( "running" ).asBoolean() || complete ) ) {
+            job.started = now;
+        }
+        if ( complete ) {
+            job.completed = now;
+            job.failed = state.path( "failed" ).asBoolean();
+            job.status = state.path( "status" ).asText();
+        }
+    }
+
+    private void report( int attempted, double seconds ) throws IOException {
+        List<Double> submit = new ArrayList<>();
+        List<Double> wait = new ArrayList<>();
+        List<Double> endToEnd = new ArrayList<>();
+        int completed = 0, failed = 0, errors = 0;
+        for ( JobRun job : runs ) {
+            submit.add( ( job.submitEnd - job.submitStart ) / 1e6 );
+            if ( job.error != null ) {
+                errors++;
+                continue;
+            }
+            if ( job.failed ) {
+                failed++;
+            } else {
+                completed++;
+            }
+            wait.add( ( job.started - job.submitEnd ) / 1e6 );
+            endToEnd.add( ( job.completed - job.submitStart ) / 1e6 );
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put( "options", new TreeMap<>( options ) );
+        report.put( "durationSeconds", seconds );
+        report.put( "attempted", attempted );
+        report.put( "submitted", runs.size() );
+        report.put( "submitErrors", submitErrors.get() );
+        report.put( "rejected", rejected.get() );
+        report.put( "completed", completed );
+        report.put( "failed", failed );
+        report.put( "watchErrors", errors );
+        report.put( "errorRate", attempted == 0 ? 0 : ( submitErrors.get() + rejected.get() + failed + errors ) / (double) attempted );
+        report.put( "throughputPerMinute", completed / seconds * 60 );
+        report.put( "submitLatencyMs", percentiles( submit ) );
+        report.put( "queueWaitMs", percentiles( wait ) );
+        report.put( "endToEndMs", percentiles( endToEnd ) );
+
+        String json = mapper.copy().enable( SerializationFeature.INDENT_OUTPUT ).writeValueAsString( report );
+        System.out.println( json );
+        Files.write( Paths.get( option( "report", "loadtest-report.json" ) ), json.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private static Map<String, Double> percentiles( List<Double> values ) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        if ( values.isEmpty() ) {
+            return result;
+        }
+        Collections.sort( values );
+        for ( double p : new double[]{50, 90, 95, 99} ) {
+            int index = (int) Math.ceil( p / 100 * values.size() ) - 1;
+            result.put( "p" + (int) p, values.get( Math.max( 0, index ) ) );
+        }
+        result.put( "max", values.get( values.size() - 1 ) );
+        result.put( "mean", values.stream().mapToDouble( Double::doubleValue ).average().orElse( 0 ) );
+        return result;
+    }
+
+    // Synthetic structure of roughly the given size, chain A with eight atoms per residue
+    private static String structure( int bytes ) {
+        StringBuilder pdb = new StringBuilder( bytes + 128 );
+        int atom = 1;
+        while ( pdb.length() < bytes ) {
+            int residue = ( atom - 1 ) / 8 + 1;
+            pdb.append( String.format( Locale.ROOT, "ATOM  %5d  CA  ALA A%4d    %8.3f%8.3f%8.3f  1.00  0.00           C\n",
+                    atom % 100000, residue % 10000, ( atom % 1000 ) * 0.1, ( residue % 1000 ) * 0.2, -( atom % 1000 ) * 0.05 ) );
+            atom++;
+        }
+        pdb.append( "END\n" );
+        return pdb.toString();
+    }
+
+    private static void part( Writer out, String boundary, String name, String fileName, String content ) throws IOException {
+        out.write( "--" + boundary + "\r\n" );
+        out.write( "Content-Disposition: form-data; name=\"" + name + "\""
+                + ( fileName != null ? "; filename=\"" + fileName + "\"" : "" ) + "\r\n" );
+        if ( fileName != null ) {
+            out.write( "Content-Type: application/octet-stream\r\n" );
+        }
+        out.write( "\r\n" );
+        out.write( content );
+        out.write( "\r\n" );
+    }
+
+    private HttpURLConnection open( String path ) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL( url + path ).openConnection();
+        connection.setConnectTimeout( 10000 );
+        connection.setReadTimeout( 60000 );
+        return connection;
+    }
+
+    private static String read( HttpURLConnection connection ) throws IOException {
+        InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if ( in == null ) {
+            return "";
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( InputStream stream = in ) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = stream.read( buffer ) ) != -1 ) {
+                out.write( buffer, 0, n );
+            }
+        }
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    private static String encode( String value ) throws UnsupportedEncodingException {
+        return URLEncoder.encode( value, "UTF-8" );
+    }
+
+    private static void sleep( long millis ) {
+        try {
+            Thread.sleep( millis );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void log( String message ) {
+        System.err.println( message );
+    }
+
+    private String option( String name, String defaultValue ) {
+        return options.getOrDefault( name, defaultValue );
+    }
+
+    private static final class JobRun {
+        private final String label;
+        private final int user;
+        private final boolean web;
+        private String jobId;
+        private long submitStart;
+        private long submitEnd;
+        private volatile long started;
+        private volatile long completed;
+        private volatile boolean failed;
+        private volatile String status;
+        private volatile String error;
+
+        JobRun( String label, int user, boolean web ) {
+            this.label = label;
+            this.user = user;
+            this.web = web;
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+import java.util.Locale;
+
+// Wires the job pipeline by hand, the way the application context would, with journaling off and
+// everything under a throwaway directory. Lives in the services package for the package-private fields.
+public final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    // The predictor is a script that sleeps, so the single worker stays busy and submitted jobs stay queued
+    public static ApplicationSettings settings( Path root ) throws IOException {
+        Path bin = Files.createDirectories( root.resolve( "bin" ) );
+        Path command = bin.resolve( "block.sh" );
+        Files.write( command, "#!/bin/sh\nsleep 3600\n".getBytes( StandardCharsets.UTF_8 ) );
+        Files.setPosixFilePermissions( command, PosixFilePermissions.fromString( "rwxr-xr-x" ) );
+
+        ApplicationSettings settings = new ApplicationSettings();
+        settings.setCommand( "block.sh" );
+        settings.setCommandWorkingDirectory( bin.toString() );
+        settings.setJobsDirectory( root.resolve( "jobs" ).toString() );
+        settings.setResultsDirectory( root.resolve( "results" ).toString() );
+        settings.setInputPDBPath( "input.pdb" );
+        settings.setInputChainPath( "input.chain" );
+        settings.setOutputScoredPDBPath( "output.pdb" );
+        settings.setOutputCSVPath( "output.csv" );
+        settings.setJournalEnabled( false );
+        settings.setPurgeSavedJobs( false );
+        settings.setConcurrentJobs( "1" );
+        settings.setProcessQueueCapacity( 1 );
+        settings.setMaxQueuedJobs( Integer.MAX_VALUE );
+        settings.setUserJobLimit( Integer.MAX_VALUE );
+        settings.setEmailOnJobStart( false );
+        return settings;
+    }
+
+    public static JobManager jobManager( ApplicationSettings settings ) {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        NotificationQueue notificationQueue = new NotificationQueue();
+        notificationQueue.applicationSettings = settings;
+        notificationQueue.emailService = new EmailService();
+        notificationQueue.meterRegistry = meterRegistry;
+        invoke( notificationQueue, "initialize" );
+
+        ResultCache resultCache = new ResultCache();
+        resultCache.applicationSettings = settings;
+        resultCache.meterRegistry = meterRegistry;
+        invoke( resultCache, "initialize" );
+
+        ResultStore resultStore = new ResultStore();
+        resultStore.applicationSettings = settings;
+
+        JobJournal jobJournal = new JobJournal();
+        jobJournal.applicationSettings = settings;
+        invoke( jobJournal, "initialize" );
+
+        JobEvents jobEvents = new JobEvents();
+        jobEvents.applicationSettings = settings;
+        jobEvents.meterRegistry = meterRegistry;
+        invoke( jobEvents, "initialize" );
+
+        JobManager jobManager = new JobManager();
+        jobManager.applicationSettings = settings;
+        jobManager.notificationQueue = notificationQueue;
+        jobManager.resultCache = resultCache;
+        jobManager.resultStore = resultStore;
+        jobManager.jobJournal = jobJournal;
+        jobManager.publicJobView = new PublicJobView();
+        jobManager.jobEvents = jobEvents;
+        jobManager.meterRegistry = meterRegistry;
+        invoke( jobManager, "initialize" );
+        return jobManager;
+    }
+
+    public static void destroy( JobManager jobManager, Path root ) throws IOException {
+        jobManager.destroy();
+        jobManager.notificationQueue.destroy();
+        jobManager.jobEvents.destroy();
+        FileSystemUtils.deleteRecursively( root );
+    }
+
+    public static PublicJobView publicJobView( JobManager jobManager ) {
+        return jobManager.publicJobView;
+    }
+
+    // Finished public job as it would sit in savedJobs
+    public static IDRBindJob completedJob( int i ) {
+        IDRBindJob job = IDRBindJob.builder()
+                .jobId( String.format( "%08d-0000-0000-0000-000000000000", i ) )
+                .userId( "10.0.0." + ( i % 250 ) )
+                .label( "structure-" + i )
+                .email( "user" + i + "@example.com" )
+                .hidden( false )
+                .submittedDate( new Date( 1500000000000L + i * 60000L ) )
+                .build();
+        job.setComplete( true );
+        job.setFailed( i % 20 == 0 );
+        job.setStatus( job.isFailed() ? "Failed" : "Completed in " + ( 60 + i % 600 ) + "s" );
+        job.setSaved( true );
+        return job;
+    }
+
+    // Synthetic structure of roughly the given size, a single chain A with eight atoms per residue
+    public static String pdb( int bytes ) {
+        StringBuilder pdb = new StringBuilder( bytes + 128 );
+        pdb.append( "HEADER    SYNTHETIC STRUCTURE\n" );
+        int atom = 1;
+        while ( pdb.length() < bytes ) {
+            int residue = ( atom - 1 ) / 8 + 1;
+            pdb.append( String.format( Locale.ROOT, "ATOM  %5d  CA  ALA A%4d    %8.3f%8.3f%8.3f  1.00  0.00           C\n",
+                    atom % 100000, residue % 10000, ( atom % 1000 ) * 0.1, ( residue % 1000 ) * 0.2, -( atom % 1000 ) * 0.05 ) );
+            atom++;
+        }
+        pdb.append( "END\n" );
+        return pdb.toString();
+    }
+
+    public static Object invoke( Object target, String method, Object... args ) {
+        for ( Method m : target instanceof Class ? ( (Class<?>) target ).getDeclaredMethods() : target.getClass().getDeclaredMethods() ) {
+            if ( m.getName().equals( method ) && m.getParameterCount() == args.length ) {
+                try {
+                    m.setAccessible( true );
+                    return m.invoke( target instanceof Class ? null : target, args );
+                } catch ( IllegalAccessException e ) {
+                    throw new IllegalStateException( e );
+                } catch ( InvocationTargetException e ) {
+                    throw new IllegalStateException( e.getCause() );
+                }
+            }
+        }
+        throw new IllegalArgumentException( "No method " + method );
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.jacobsonmt.idrbind.controllers;
+
+import javax.servlet.http.HttpServletRequest;
+
+// Who is asking: the address a proxy forwarded for, else the remote address. Jobs are owned by the
+// address they were submitted from, which is also what cancelling and per-user listings go by.
+public final class ClientAddress {
+
+    private ClientAddress() {
+    }
+
+    public static String of( HttpServletRequest request ) {
+        String ipAddress = request.getHeader( "X-FORWARDED-FOR" );
+        if ( ipAddress == null ) {
+            ipAddress = request.getRemoteAddr();
+        }
+        return ipAddress;
+    }
+
+}
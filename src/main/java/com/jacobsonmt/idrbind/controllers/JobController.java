@@ -2,23 +2,37 @@ package com.jacobsonmt.idrbind.controllers;
 
 import com.jacobsonmt.idrbind.model.IDRBindJob;
 import com.jacobsonmt.idrbind.model.IDRBindJobResult;
+import com.jacobsonmt.idrbind.model.InputTooLargeException;
 import com.jacobsonmt.idrbind.services.JobManager;
+import com.jacobsonmt.idrbind.services.ResultStore;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -30,6 +44,12 @@ public class JobController {
     @Autowired
     private JobManager jobManager;
 
+    @Autowired
+    private ResultStore resultStore;
+
+    @Autowired
+    private ApplicationSettings applicationSettings;
+
 
 
     @PostMapping("/")
@@ -41,19 +61,30 @@ public class JobController {
                                    HttpServletRequest request,
                                    RedirectAttributes redirectAttributes) throws IOException {
 
-        String ipAddress = request.getHeader( "X-FORWARDED-FOR" );
-        if ( ipAddress == null ) {
-            ipAddress = request.getRemoteAddr();
-        }
+        String ipAddress = ClientAddress.of( request );
 
-        IDRBindJob job = jobManager.createJob( ipAddress,
-                label,
-                IDRBindJob.inputStreamToString( pdbFile.getInputStream() ),
-                IDRBindJob.inputStreamToString( sequence.getInputStream() ),
-                email,
-                hidden );
+        IDRBindJob job;
+        try ( InputStream in = pdbFile.getInputStream() ) {
+            if ( pdbFile.getSize() > applicationSettings.getMaxInputBytes() ) {
+                throw new InputTooLargeException( applicationSettings.getMaxInputBytes() );
+            }
+            job = jobManager.createJob( ipAddress,
+                    label,
+                    in,
+                    IDRBindJob.inputStreamToString( sequence.getInputStream() ),
+                    email,
+                    hidden );
+        } catch ( InputTooLargeException e ) {
+            redirectAttributes.addFlashAttribute("message", "Job Rejected: structure file is too large" );
+            return "redirect:/";
+        }
         jobManager.submit( job );
 
+        if ( job.isFailed() ) {
+            redirectAttributes.addFlashAttribute("message", "Job " + job.getStatus() );
+            return "redirect:/";
+        }
+
         redirectAttributes.addFlashAttribute("message",
                 "Job Submitted! View job <a href='job/" + job.getJobId() + "' target='_blank'>here</a>.");
 
@@ -62,6 +93,8 @@ public class JobController {
 
     @GetMapping("/job/{jobId}")
     public String job( @PathVariable("jobId") String jobId,
+                       HttpServletRequest request,
+                       WebRequest webRequest,
                        Model model) throws IOException {
 
         IDRBindJob job = jobManager.getSavedJob( jobId );
@@ -70,54 +103,160 @@ public class JobController {
             return "/";
         }
 
-        model.addAttribute("job", jobManager.getSavedJob( jobId ).toValueObject( true ) );
+        // Same validator as the job's value object, the page shows nothing else that changes
+        if ( webRequest.checkNotModified( job.etag() ) ) {
+            return null;
+        }
+
+        model.addAttribute("job", job.toValueObject( true ) );
+        model.addAttribute("owner", ClientAddress.of( request ).equals( job.getUserId() ) );
 
         return "job";
     }
 
+    // Only from the address the job was submitted from, public job ids are listed for everyone
+    @PostMapping("/job/{jobId}/cancel")
+    public String cancelJob( @PathVariable("jobId") String jobId, HttpServletRequest request ) {
+        IDRBindJob job = jobManager.getSavedJob( jobId );
+        if ( job == null ) {
+            return "redirect:/";
+        }
+        if ( ClientAddress.of( request ).equals( job.getUserId() ) ) {
+            jobManager.cancel( job );
+        } else {
+            log.info( "Refused to cancel job (" + jobId + ") for " + ClientAddress.of( request ) );
+        }
+        return "redirect:/job/" + jobId;
+    }
+
     @GetMapping("/job/{jobId}/resultPDB")
-    public ResponseEntity<String> jobResultPDB( @PathVariable("jobId") String jobId) {
+    public void jobResultPDB( @PathVariable("jobId") String jobId,
+                              HttpServletRequest request,
+                              HttpServletResponse response ) throws IOException {
+        IDRBindJobResult result = completedResult( jobId );
+        if ( result == null ) {
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+            return;
+        }
+        sendResultFile( result.getResultPDBFile(), jobManager.getSavedJob( jobId ).getLabel() + "-result.pdb", request, response );
+    }
+
+    @GetMapping("/job/{jobId}/resultCSV")
+    public void jobResultCSV( @PathVariable("jobId") String jobId,
+                              HttpServletRequest request,
+                              HttpServletResponse response ) throws IOException {
+        IDRBindJobResult result = completedResult( jobId );
+        if ( result == null ) {
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+            return;
+        }
+        sendResultFile( result.getResultCSVFile(), jobManager.getSavedJob( jobId ).getLabel() + "-result.csv", request, response );
+    }
+
+    private IDRBindJobResult completedResult( String jobId ) {
         IDRBindJob job = jobManager.getSavedJob( jobId );
 
         // test for not null and complete
         if ( job != null && job.isComplete() && !job.isFailed() ) {
             try {
-                IDRBindJobResult result = job.getFuture().get( 1, TimeUnit.SECONDS );
-
-                    return ResponseEntity.ok()
-                            .contentType( MediaType.parseMediaType("application/octet-stream"))
-                            .header( HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + job.getLabel() + "-result.pdb\"")
-                            .body(result.getResultPDB());
-
+                return job.getFuture().get( 1, TimeUnit.SECONDS );
             } catch ( InterruptedException | ExecutionException | TimeoutException e ) {
                 log.warn( e );
-                ResponseEntity.status( 500 ).body( "" );
             }
         }
-        return ResponseEntity.badRequest().body( "" );
+        return null;
     }
 
-    @GetMapping("/job/{jobId}/resultCSV")
-    public ResponseEntity<String> jobResultCSV( @PathVariable("jobId") String jobId) {
-        IDRBindJob job = jobManager.getSavedJob( jobId );
+    private void sendResultFile( Path file, String filename, HttpServletRequest request,
+                                 HttpServletResponse response ) throws IOException {
+        if ( file == null || !Files.exists( file ) ) {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
 
-        // test for not null and complete
-        if ( job != null && job.isComplete() && !job.isFailed() ) {
+        // Stored gzip copy goes out untouched to clients that accept it. The choice depends on Accept-Encoding alone,
+        // so a range is always of the representation its ETag and If-Range name.
+        Path gzip = resultStore.gzipVariant( file );
+        String acceptEncoding = request.getHeader( HttpHeaders.ACCEPT_ENCODING );
+        boolean gzipped = gzip != null && acceptEncoding != null && acceptEncoding.contains( "gzip" );
+        if ( gzipped ) {
+            file = gzip;
+        }
+
+        // Stored results never change, time and size make a strong validator (one per encoding)
+        long size = Files.size( file );
+        long lastModified = Files.getLastModifiedTime( file ).toMillis();
+        String etag = "\"" + Long.toHexString( lastModified ) + "-" + Long.toHexString( size ) + ( gzipped ? "-gz" : "" ) + "\"";
+
+        response.setHeader( HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING );
+        response.setHeader( HttpHeaders.ACCEPT_RANGES, "bytes" );
+        response.setHeader( HttpHeaders.CACHE_CONTROL, "private, max-age=86400" );
+        if ( new ServletWebRequest( request, response ).checkNotModified( etag, lastModified ) ) {
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        String range = request.getHeader( HttpHeaders.RANGE );
+        if ( range != null && ifRangeCurrent( request, etag, lastModified ) ) {
             try {
-                IDRBindJobResult result = job.getFuture().get( 1, TimeUnit.SECONDS );
+                List<HttpRange> ranges = HttpRange.parseRanges( range );
+                // Several ranges are answered with the whole file
+                if ( ranges.size() == 1 ) {
+                    start = ranges.get( 0 ).getRangeStart( size );
+                    end = ranges.get( 0 ).getRangeEnd( size );
+                    // HttpRange doesn't check a first position at or past the end of the file
+                    if ( start >= size || start > end ) {
+                        throw new IllegalArgumentException( "Range starts past the end of the file" );
+                    }
+                    response.setStatus( HttpServletResponse.SC_PARTIAL_CONTENT );
+                    response.setHeader( HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size );
+                }
+            } catch ( IllegalArgumentException e ) {
+                response.setHeader( HttpHeaders.CONTENT_RANGE, "bytes */" + size );
+                response.sendError( HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE );
+                return;
+            }
+        }
 
-                return ResponseEntity.ok()
-                        .contentType( MediaType.parseMediaType("application/octet-stream"))
-                        .header( HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + job.getLabel() + "-result.csv\"")
-                        .body(result.getResultCSV());
+        long length = end - start + 1;
+        if ( gzipped ) {
+            response.setHeader( HttpHeaders.CONTENT_ENCODING, "gzip" );
+        }
+        response.setContentType( MediaType.APPLICATION_OCTET_STREAM_VALUE );
+        response.setHeader( HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"" );
+        response.setContentLengthLong( length );
 
-            } catch ( InterruptedException | ExecutionException | TimeoutException e ) {
-                log.warn( e );
-                ResponseEntity.status( 500 ).body( "" );
+        // Let the container hand the file straight to the socket when it can, otherwise transfer from the channel
+        if ( Boolean.TRUE.equals( request.getAttribute( "org.apache.tomcat.sendfile.support" ) ) ) {
+            request.setAttribute( "org.apache.tomcat.sendfile.filename", file.toAbsolutePath().toString() );
+            request.setAttribute( "org.apache.tomcat.sendfile.start", start );
+            request.setAttribute( "org.apache.tomcat.sendfile.end", end + 1 );
+            return;
+        }
+
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) ) {
+            WritableByteChannel out = Channels.newChannel( response.getOutputStream() );
+            long position = start;
+            while ( position <= end ) {
+                long sent = channel.transferTo( position, end + 1 - position, out );
+                if ( sent <= 0 ) break;
+                position += sent;
             }
         }
-        return ResponseEntity.badRequest().body( "" );
     }
 
+    // A range is only served if the client's partial copy is of the current file, otherwise it gets all of it
+    private static boolean ifRangeCurrent( HttpServletRequest request, String etag, long lastModified ) {
+        String ifRange = request.getHeader( HttpHeaders.IF_RANGE );
+        if ( ifRange == null || ifRange.equals( etag ) ) {
+            return true;
+        }
+        try {
+            return request.getDateHeader( HttpHeaders.IF_RANGE ) / 1000 == lastModified / 1000;
+        } catch ( IllegalArgumentException e ) {
+            return false;
+        }
+    }
 
 }
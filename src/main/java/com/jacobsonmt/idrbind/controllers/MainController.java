@@ -24,9 +24,7 @@ public class MainController {
 
     @GetMapping("/queue")
     public String queue( Model model) throws IOException {
-
-        model.addAttribute("jobs", jobManager.listPublicJobs() );
-
+        // Rows are fetched page by page from /api/queue
         return "queue";
     }
 
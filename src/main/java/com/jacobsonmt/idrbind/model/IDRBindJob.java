@@ -1,16 +1,23 @@
 package com.jacobsonmt.idrbind.model;
 
 import com.jacobsonmt.idrbind.services.JobManager;
+import com.jacobsonmt.idrbind.services.ResultStore;
 import lombok.*;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.util.FileSystemUtils;
 import org.springframework.util.StopWatch;
 
-import javax.ws.rs.core.StreamingOutput;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 @Log4j2
 @Getter
@@ -23,89 +30,253 @@ public class IDRBindJob implements Callable<IDRBindJobResult> {
     // Path to resources
     private String command;
     private String commandWorkingDirectory;
+    private String jobDirectory;
     private String inputPDBFullPath;
     private String inputProteinChainFullPath;
     private String outputScoredPDBFullPath;
     private String outputCSVFullPath;
-
+    private long commandTimeoutMillis;
+    private int commandOutputLines;
+    private PredictorPool predictorPool;
 
     // Information on creation of job
     private String userId;
     private String jobId;
     private String label;
-    private String inputPDBContent;
-    private String inputProteinChainIds;
+    private String cacheKey;
+    private int residueCount;
     @Builder.Default private boolean hidden = true;
     private Date submittedDate;
+    @Builder.Default private long createdTime = System.currentTimeMillis();
     private String email;
+    private long sequence;
+    private String batchId;
 
     // Information on running / completion
     @Builder.Default private boolean running = false;
     @Builder.Default private boolean failed = false;
     @Builder.Default private boolean complete = false;
-    private Integer position;
     private String status;
+    private Integer exitCode;
+    @Builder.Default private boolean timedOut = false;
+    @Builder.Default private volatile boolean cancelled = false;
 
     // Results
     private Future<IDRBindJobResult> future;
-    private StreamingOutput resultFile;
+    private IDRBindJobResult result;
     private long executionTime;
 
     // Saving Job information / results for later
     @Builder.Default private boolean saved = false;
     private Long saveExpiredDate;
 
+    // Bumped on every change visible in the value object, drives ETags. Starts from the clock so a restart
+    // (possibly with new templates) never reuses a validator.
+    @Getter(AccessLevel.NONE)
+    @Builder.Default private final AtomicLong version = new AtomicLong( System.currentTimeMillis() );
+
     // Back-reference to owning JobManager
     private JobManager jobManager;
 
+    // Set while handed to the executor, position is looked up from here on read
+    private ProcessQueue processQueue;
+    private Long queueTicket;
+    private boolean fastLane;
+
+    // Where finished outputs are kept
+    private ResultStore resultStore;
+
     @Override
     public IDRBindJobResult call() throws Exception {
 
+        boolean interrupted = false;
         try {
+            if ( !start() ) {
+                // Cancelled on its way to the worker
+                return IDRBindJobResult.EMPTY;
+            }
+            execute();
+            return finish( Paths.get( outputScoredPDBFullPath ), Paths.get( outputCSVFullPath ) );
+        } catch ( InterruptedException e ) {
+            if ( cancelled ) {
+                // The predictor has been killed, JobManager already took care of the rest
+                log.info( "Cancelled job (" + label + ") for user: (" + userId + ")" );
+                return IDRBindJobResult.EMPTY;
+            }
+            // Server is shutting down, leave the inputs in place so the job is resumed on restart
+            log.info( "Interrupted job (" + label + ") for user: (" + userId + ")" );
+            this.running = false;
+            interrupted = true;
+            return IDRBindJobResult.EMPTY;
+        } catch ( Exception e ) {
+            log.error( e );
+            return fail();
+        } finally {
+            if ( !interrupted ) {
+                FileSystemUtils.deleteRecursively( new File( jobDirectory ) );
+            }
+        }
 
-            log.info( "Starting job (" + label + ") for user: (" + userId + ")" );
+    }
 
+    // The steps of call() are also used on their own when the predictor runs on a remote worker:
+    // the coordinator starts, finishes or fails the job, the worker executes it.
+
+    // False if the job was cancelled before it got going
+    public boolean start() {
+        synchronized ( this ) {
+            if ( cancelled ) {
+                return false;
+            }
             this.running = true;
             this.status = "Processing";
+        }
 
-            jobManager.onJobStart( this );
-
-            // Write content to input
-            File pdbFile = new File( inputPDBFullPath );
-            writeToFile( pdbFile, inputPDBContent );
-
-            File chainFile = new File( inputProteinChainFullPath );
-            writeToFile( chainFile, inputProteinChainIds );
+        log.info( "Starting job (" + label + ") for user: (" + userId + ")" );
+        jobManager.onJobStart( this );
+        return true;
+    }
 
-            // Execute script
-            StopWatch sw = new StopWatch();
-            sw.start();
-            executeCommand( "./" + command, commandWorkingDirectory );
+    // Runs the predictor on the input files, throws if it exits with an error or times out.
+    // Uses a warm predictor daemon if there is one, otherwise starts the command just for this job.
+    public void execute() throws IOException, InterruptedException {
+        StopWatch sw = new StopWatch();
+        sw.start();
+        String error;
+        try {
+            PredictorPool.Outcome outcome = predictorPool != null ? predictorPool.run( Arrays.asList( inputPDBFullPath,
+                    inputProteinChainFullPath, outputScoredPDBFullPath, outputCSVFullPath ), commandTimeoutMillis ) : null;
+            if ( outcome != null ) {
+                this.exitCode = outcome.getExitCode();
+                this.timedOut = outcome.isTimedOut();
+                error = outcome.getError();
+            } else {
+                ProcessRunner runner = new ProcessRunner( Arrays.asList( "./" + command, inputPDBFullPath,
+                        inputProteinChainFullPath, outputScoredPDBFullPath, outputCSVFullPath ),
+                        new File( commandWorkingDirectory ), commandTimeoutMillis, commandOutputLines );
+                this.exitCode = runner.run();
+                this.timedOut = runner.isTimedOut();
+                error = runner.getStderr();
+            }
+        } finally {
             sw.stop();
             this.executionTime = sw.getTotalTimeMillis() / 1000;
+        }
 
-            // Get output
-            String resultPDB = inputStreamToString( new FileInputStream( outputScoredPDBFullPath ) );
-            String resultCSV = inputStreamToString( new FileInputStream( outputCSVFullPath ) );
+        if ( timedOut ) {
+            throw new IOException( "Command timed out after " + executionTime + "s" );
+        }
+        if ( exitCode != 0 ) {
+            throw new IOException( "Command exited with code " + exitCode + ": " + error );
+        }
+    }
 
-            log.info( "Finished job (" + label + ") for user: (" + userId + ")" );
-            this.running = false;
-            this.complete = true;
+    // Moves the outputs into the result store, they are only read back when downloaded
+    public IDRBindJobResult finish( Path scoredPDB, Path csv ) throws IOException {
+        IDRBindJobResult result = resultStore.store( jobId, scoredPDB, csv );
+        if ( !settle() ) {
+            // Cancelled just as it finished
+            resultStore.delete( jobId );
+            return IDRBindJobResult.EMPTY;
+        }
 
-            jobManager.onJobComplete( this );
-            jobManager = null;
+        log.info( "Finished job (" + label + ") for user: (" + userId + ")" );
+        this.result = result;
+        this.running = false;
 
-            return new IDRBindJobResult( resultPDB, resultCSV );
-        } catch ( Exception e ) {
-            log.error( e );
-            this.complete = true;
-            this.running = false;
-            this.failed = true;
+        JobManager manager = jobManager;
+        jobManager = null;
+        manager.onJobComplete( this, result );
+
+        return result;
+    }
+
+    public IDRBindJobResult fail() {
+        if ( !settle() ) {
+            return IDRBindJobResult.EMPTY;
+        }
+        this.running = false;
+        this.failed = true;
+        this.status = "Failed";
+        if ( jobManager != null ) {
+            // Failed jobs free their worker slot too
+            JobManager manager = jobManager;
             jobManager = null;
-            this.status = "Failed";
-            return new IDRBindJobResult( "", "" );
+            manager.onJobComplete( this, null );
+        }
+        return IDRBindJobResult.EMPTY;
+    }
+
+    // Only one of finishing, failing or cancelling gets to complete the job, true for that one
+    public synchronized boolean settle() {
+        if ( complete ) {
+            return false;
+        }
+        this.complete = true;
+        return true;
+    }
+
+    // Marks the job cancelled unless it already completed, stopping it is up to JobManager
+    public synchronized boolean cancel() {
+        if ( complete ) {
+            return false;
+        }
+        this.complete = true;
+        this.cancelled = true;
+        this.failed = true;
+        this.running = false;
+        this.status = "Cancelled";
+        this.result = IDRBindJobResult.EMPTY;
+        return true;
+    }
+
+    public Integer getPosition() {
+        ProcessQueue queue = processQueue;
+        return queue != null ? queue.position( this ) : null;
+    }
+
+    public String getStatus() {
+        Integer position = getPosition();
+        return position != null ? "Position: " + Integer.toString( position ) : status;
+    }
+
+    public void changed() {
+        version.incrementAndGet();
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    // Strong validator of the value object. Position is looked up live rather than versioned, so it is part of it.
+    public String etag() {
+        Integer position = getPosition();
+        return "\"" + Long.toHexString( version.get() ) + ( position != null ? "-" + position : "" ) + "\"";
+    }
+
+    // Rough heap footprint of this job, fixed fields plus the strings it doesn't share with every other job
+    // (compact, one byte a char). Inputs and results are on disk, never held here.
+    public long approximateSize() {
+        long size = 320;
+        for ( String s : new String[]{jobDirectory, inputPDBFullPath, inputProteinChainFullPath,
+                outputScoredPDBFullPath, outputCSVFullPath, userId, jobId, label, cacheKey, email, batchId, status} ) {
+            if ( s != null ) {
+                size += 40 + s.length();
+            }
         }
+        return size;
+    }
 
+    // Spooled next to the structure when the job is created, the job itself never holds its inputs
+    public void writeChains( String inputProteinChainIds ) throws IOException {
+        writeToFile( new File( inputProteinChainFullPath ), inputProteinChainIds );
+    }
+
+    // Inputs are spooled into the job's scratch directory when it is created, restored jobs find them still there
+    public void checkInputs() throws IOException {
+        if ( !Files.exists( Paths.get( inputPDBFullPath ) ) || !Files.exists( Paths.get( inputProteinChainFullPath ) ) ) {
+            throw new FileNotFoundException( "Missing inputs for job (" + jobId + ")" );
+        }
     }
 
     private static void writeToFile(File file, String fileContents) throws IOException {
@@ -127,28 +298,6 @@ public class IDRBindJob implements Callable<IDRBindJobResult> {
 
     }
 
-    private static String executeCommand( String command, String path ) {
-
-        StringBuffer output = new StringBuffer();
-
-        Process p;
-        try {
-            p = Runtime.getRuntime().exec( command, null, new File( path ) );
-            p.waitFor();
-            BufferedReader reader = new BufferedReader( new InputStreamReader( p.getInputStream() ) );
-
-            String line = "";
-            while ( ( line = reader.readLine() ) != null ) {
-                output.append( line + "\r\n" );
-            }
-
-        } catch ( Exception e ) {
-            e.printStackTrace();
-        }
-
-        return output.toString();
-    }
-
     public static String inputStreamToString(InputStream inputStream) throws IOException {
         StringBuilder textBuilder = new StringBuilder();
         try (Reader reader = new BufferedReader(new InputStreamReader
@@ -174,13 +323,23 @@ public class IDRBindJob implements Callable<IDRBindJobResult> {
         private final String email;
         private final boolean hidden;
         private final Date submitted;
+        // Relative to the site URL, results are downloaded rather than inlined
+        private final String resultPDBUrl;
+        private final String resultCSVUrl;
+        // Only when asked for, the contents are read from disk as it is serialized
         private final IDRBindJobResult result;
     }
 
+    private static final Pattern EMAIL_OBFUSCATION = Pattern.compile( "(\\w{0,3})(\\w+.*)(@.*)" );
+
     public IDRBindJobVO toValueObject(boolean obfuscateEmail) {
+        return toValueObject( obfuscateEmail, false );
+    }
+
+    public IDRBindJobVO toValueObject(boolean obfuscateEmail, boolean includeResult) {
 
-        IDRBindJobResult result = null;
-        if ( this.isComplete() ) {
+        IDRBindJobResult result = this.result;
+        if ( result == null && this.isComplete() && this.getFuture() != null ) {
             try {
                 result = this.getFuture().get( 1, TimeUnit.SECONDS );
             } catch ( InterruptedException | ExecutionException | TimeoutException e ) {
@@ -188,7 +347,11 @@ public class IDRBindJob implements Callable<IDRBindJobResult> {
             }
         }
 
-        return new IDRBindJobVO( jobId, label, status, running, failed, complete, position, obfuscateEmail ? email.replaceAll("(\\w{0,3})(\\w+.*)(@.*)", "$1****$3") :  email, hidden, submittedDate, result );
+        String email = obfuscateEmail && this.email != null ? EMAIL_OBFUSCATION.matcher( this.email ).replaceAll( "$1****$3" ) : this.email;
+        boolean hasResult = result != null && result.getResultPDBFile() != null;
+        return new IDRBindJobVO( jobId, label, getStatus(), running, failed, complete, getPosition(), email, hidden, submittedDate,
+                hasResult ? "job/" + jobId + "/resultPDB" : null, hasResult ? "job/" + jobId + "/resultCSV" : null,
+                includeResult ? result : null );
     }
 
 }
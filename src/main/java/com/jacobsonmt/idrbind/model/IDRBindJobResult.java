@@ -1,15 +1,44 @@
 package com.jacobsonmt.idrbind.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.Setter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Result files live in the ResultStore, contents are only read when asked for
 @Getter
-@Setter
 @AllArgsConstructor
 public final class IDRBindJobResult {
 
-    private final String resultPDB;
-    private final String resultCSV;
+    public static final IDRBindJobResult EMPTY = new IDRBindJobResult( null, null );
+
+    @JsonIgnore
+    private final Path resultPDBFile;
+    @JsonIgnore
+    private final Path resultCSVFile;
+
+    public String getResultPDB() {
+        return read( resultPDBFile );
+    }
+
+    public String getResultCSV() {
+        return read( resultCSVFile );
+    }
+
+    private static String read( Path file ) {
+        if ( file == null || !Files.exists( file ) ) {
+            return "";
+        }
+        try {
+            return new String( Files.readAllBytes( file ), StandardCharsets.UTF_8 );
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
 
 }
@@ -0,0 +1,19 @@
+package com.jacobsonmt.idrbind.model;
+
+import java.io.IOException;
+
+// Uploaded input went over the configured size limit, raised as soon as the limit is crossed
+public class InputTooLargeException extends IOException {
+
+    private final long limit;
+
+    public InputTooLargeException( long limit ) {
+        super( "Input larger than " + limit + " bytes" );
+        this.limit = limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.jacobsonmt.idrbind.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Jobs submitted together in one request, tracked under one id for progress and a combined download
+@Getter
+public class JobBatch {
+
+    private final String batchId;
+    private final String userId;
+    private final Date submittedDate;
+    private final List<IDRBindJob> jobs;
+
+    // Jobs not yet purged, the batch goes once this reaches zero
+    private final AtomicInteger live;
+
+    public JobBatch( String batchId, String userId, Date submittedDate, List<IDRBindJob> jobs ) {
+        this.batchId = batchId;
+        this.userId = userId;
+        this.submittedDate = submittedDate;
+        this.jobs = Collections.unmodifiableList( new ArrayList<>( jobs ) );
+        this.live = new AtomicInteger( jobs.size() );
+    }
+
+    // True once every job of the batch has been purged
+    public boolean purged( IDRBindJob job ) {
+        return live.decrementAndGet() <= 0;
+    }
+
+    public BatchVO toValueObject() {
+        int pending = 0, running = 0, complete = 0, failed = 0;
+        List<BatchJobVO> jobVOs = new ArrayList<>( jobs.size() );
+        for ( IDRBindJob job : jobs ) {
+            if ( job.isFailed() ) {
+                failed++;
+            } else if ( job.isComplete() ) {
+                complete++;
+            } else if ( job.isRunning() ) {
+                running++;
+            } else {
+                pending++;
+            }
+            jobVOs.add( new BatchJobVO( job.getJobId(), job.getLabel(), job.getStatus(), job.isComplete(), job.isFailed() ) );
+        }
+        return new BatchVO( batchId, submittedDate, jobs.size(), pending, running, complete, failed,
+                pending == 0 && running == 0, jobVOs );
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class BatchVO {
+        private final String batchId;
+        private final Date submitted;
+        private final int total;
+        private final int pending;
+        private final int running;
+        private final int complete;
+        private final int failed;
+        private final boolean finished;
+        private final List<BatchJobVO> jobs;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class BatchJobVO {
+        private final String jobId;
+        private final String label;
+        private final String status;
+        private final boolean complete;
+        private final boolean failed;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.jacobsonmt.idrbind.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Stands in for the executor when jobs run on remote workers. Dispatched jobs wait in a bounded
+// line until a worker asks for one, the worker then holds a lease on the job for as long as it keeps
+// sending heartbeats. Leases that go quiet are expired and their jobs go back to the head of the line.
+public class JobLeases {
+
+    private final int capacity;
+
+    // Guarded by this, workers waiting on an empty line are woken by offer/requeue
+    private final Deque<IDRBindJob> pending = new ArrayDeque<>();
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    public JobLeases( int capacity ) {
+        this.capacity = Math.max( 1, capacity );
+    }
+
+    // False if the line is full, like an executor rejecting work
+    public synchronized boolean offer( IDRBindJob job ) {
+        if ( pending.size() >= capacity ) {
+            return false;
+        }
+        pending.addLast( job );
+        notifyAll();
+        return true;
+    }
+
+    // Back to the head of the line after its lease was lost, regardless of capacity
+    public synchronized void requeue( IDRBindJob job ) {
+        pending.addFirst( job );
+        notifyAll();
+    }
+
+    public synchronized boolean hasCapacity() {
+        return pending.size() < capacity;
+    }
+
+    public synchronized int waitingCount() {
+        return pending.size();
+    }
+
+    // Waits up to the given time for a job and leases it to the worker, null if none turned up
+    public Lease take( String workerId, long waitMillis ) throws InterruptedException {
+        IDRBindJob job;
+        synchronized ( this ) {
+            long deadline = System.currentTimeMillis() + waitMillis;
+            while ( pending.isEmpty() ) {
+                long remaining = deadline - System.currentTimeMillis();
+                if ( remaining <= 0 ) {
+                    return null;
+                }
+                wait( remaining );
+            }
+            job = pending.poll();
+        }
+
+        Lease lease = new Lease( UUID.randomUUID().toString(), workerId, job );
+        leases.put( lease.getLeaseId(), lease );
+        return lease;
+    }
+
+    // Takes back a cancelled job, waiting or leased. A worker holding it finds out on its next heartbeat.
+    public boolean remove( IDRBindJob job ) {
+        synchronized ( this ) {
+            if ( pending.remove( job ) ) {
+                return true;
+            }
+        }
+        return leases.values().removeIf( lease -> lease.getJob() == job );
+    }
+
+    public Lease get( String leaseId ) {
+        return leases.get( leaseId );
+    }
+
+    // Null if the lease has expired or was never granted
+    public Lease heartbeat( String leaseId ) {
+        Lease lease = leases.get( leaseId );
+        if ( lease != null ) {
+            lease.lastHeartbeat = System.currentTimeMillis();
+        }
+        return lease;
+    }
+
+    // Ends a lease, null if it had already expired and the job belongs to someone else now
+    public Lease release( String leaseId ) {
+        return leases.remove( leaseId );
+    }
+
+    // Removes and returns the leases without a heartbeat within the timeout
+    public List<Lease> expire( long timeoutMillis ) {
+        long cutoff = System.currentTimeMillis() - timeoutMillis;
+        List<Lease> expired = new ArrayList<>();
+        for ( Lease lease : leases.values() ) {
+            if ( lease.lastHeartbeat < cutoff && leases.remove( lease.getLeaseId(), lease ) ) {
+                expired.add( lease );
+            }
+        }
+        return expired;
+    }
+
+    public int leaseCount() {
+        return leases.size();
+    }
+
+    public Collection<Lease> leases() {
+        return Collections.unmodifiableCollection( leases.values() );
+    }
+
+    @Getter
+    public static final class Lease {
+        private final String leaseId;
+        private final String workerId;
+        private final IDRBindJob job;
+        private final long grantedTime;
+        private volatile long lastHeartbeat;
+
+        Lease( String leaseId, String workerId, IDRBindJob job ) {
+            this.leaseId = leaseId;
+            this.workerId = workerId;
+            this.job = job;
+            this.grantedTime = System.currentTimeMillis();
+            this.lastHeartbeat = grantedTime;
+        }
+    }
+
+    // What a worker is told about its lease
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static final class LeaseVO {
+        private String leaseId;
+        private String jobId;
+        private String label;
+        private int leaseTimeoutSeconds;
+    }
+
+}
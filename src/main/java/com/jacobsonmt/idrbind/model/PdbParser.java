@@ -0,0 +1,208 @@
+package com.jacobsonmt.idrbind.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Single pass over a PDB file as it is streamed in, working on raw bytes line by line without building
+// strings or records. Checks ATOM/HETATM records are well formed, notes which chains exist and counts
+// residues (ATOM records of the first model) so jobs can be sized for scheduling. Lines are passed on to
+// the output, optionally dropping coordinate records of chains that weren't requested.
+//
+// Requested chains are only known when the chain ids are a list of single characters (e.g. "A", "A,B"
+// or one per line), anything else is not checked against the structure.
+public class PdbParser {
+
+    private static final int MAX_ERROR_LINE = 80;
+
+    // Requested chain ids by byte value, null when no chains were requested
+    private final boolean[] requested;
+    private final boolean trim;
+    private final OutputStream out;
+
+    private byte[] line = new byte[128];
+    private int length = 0;
+    private int lineNumber = 0;
+
+    private final boolean[] present = new boolean[256];
+    private final int[] residues = new int[256];
+    private int atoms = 0;
+    private boolean firstModelDone = false;
+
+    // Previous ATOM residue, to count residue changes
+    private int previousChain = -1;
+    private final byte[] previousResidue = new byte[5];
+
+    private String error;
+
+    public PdbParser( String chainIds, boolean trim, OutputStream out ) {
+        this.requested = parseChainIds( chainIds );
+        this.trim = trim && requested != null;
+        this.out = out;
+    }
+
+    public void update( byte[] buffer, int offset, int count ) throws IOException {
+        for ( int i = offset; i < offset + count; i++ ) {
+            if ( buffer[i] == '\n' ) {
+                endLine();
+            } else {
+                if ( length == line.length ) {
+                    line = Arrays.copyOf( line, line.length * 2 );
+                }
+                line[length++] = buffer[i];
+            }
+        }
+    }
+
+    public void finish() throws IOException {
+        if ( length > 0 ) {
+            endLine();
+        }
+
+        if ( error == null && atoms == 0 ) {
+            error = "No ATOM or HETATM records found";
+        }
+        if ( error == null && requested != null ) {
+            for ( int c = 0; c < requested.length; c++ ) {
+                if ( requested[c] && !present[c] ) {
+                    error = "Chain " + (char) c + " not found in structure, it has chains: " + getChains();
+                    break;
+                }
+            }
+        }
+    }
+
+    // First problem found, null if the structure is fine
+    public String getError() {
+        return error;
+    }
+
+    // Residues of the requested chains, or of all chains if none were requested
+    public int getResidueCount() {
+        int count = 0;
+        for ( int c = 0; c < residues.length; c++ ) {
+            if ( requested == null || requested[c] ) {
+                count += residues[c];
+            }
+        }
+        return count;
+    }
+
+    public String getChains() {
+        StringBuilder chains = new StringBuilder();
+        for ( int c = 0; c < present.length; c++ ) {
+            if ( present[c] ) {
+                chains.append( (char) c );
+            }
+        }
+        return chains.toString();
+    }
+
+    private void endLine() throws IOException {
+        lineNumber++;
+
+        int end = length;
+        if ( end > 0 && line[end - 1] == '\r' ) end--;
+
+        boolean keep = true;
+        if ( startsWith( "ATOM  " ) || startsWith( "HETATM" ) ) {
+            keep = coordinateRecord( end );
+        } else if ( startsWith( "ANISOU" ) || startsWith( "SIGATM" ) || startsWith( "SIGUIJ" ) || startsWith( "TER" ) ) {
+            keep = !trim || end <= 21 || requested[line[21] & 0xff];
+        } else if ( startsWith( "ENDMDL" ) ) {
+            firstModelDone = true;
+        }
+
+        if ( keep ) {
+            out.write( line, 0, length );
+            out.write( '\n' );
+        }
+        length = 0;
+    }
+
+    private boolean coordinateRecord( int end ) {
+        atoms++;
+        if ( error == null && ( end < 54 || !isNumber( 30, 38 ) || !isNumber( 38, 46 ) || !isNumber( 46, 54 )
+                || isBlank( 22, 26 ) ) ) {
+            error = "Malformed " + new String( line, 0, 6 ).trim() + " record at line " + lineNumber + ": "
+                    + new String( line, 0, Math.min( end, MAX_ERROR_LINE ) );
+        }
+        if ( end < 27 ) {
+            return !trim;
+        }
+
+        int chain = line[21] & 0xff;
+        present[chain] = true;
+
+        // Residue changes on chain, residue number or insertion code
+        if ( !firstModelDone && line[0] == 'A' ) {
+            boolean same = chain == previousChain;
+            for ( int i = 0; same && i < 5; i++ ) {
+                same = line[22 + i] == previousResidue[i];
+            }
+            if ( !same ) {
+                residues[chain]++;
+                previousChain = chain;
+                System.arraycopy( line, 22, previousResidue, 0, 5 );
+            }
+        }
+
+        return !trim || requested[chain];
+    }
+
+    private boolean startsWith( String record ) {
+        if ( length < record.length() ) {
+            return false;
+        }
+        for ( int i = 0; i < record.length(); i++ ) {
+            if ( line[i] != record.charAt( i ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isBlank( int from, int to ) {
+        for ( int i = from; i < to; i++ ) {
+            if ( line[i] != ' ' ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Right justified decimal such as "  -12.345"
+    private boolean isNumber( int from, int to ) {
+        int i = from;
+        while ( i < to && line[i] == ' ' ) i++;
+        if ( i < to && line[i] == '-' ) i++;
+        boolean digits = false;
+        boolean point = false;
+        for ( ; i < to; i++ ) {
+            byte b = line[i];
+            if ( b >= '0' && b <= '9' ) {
+                digits = true;
+            } else if ( b == '.' && !point ) {
+                point = true;
+            } else {
+                return false;
+            }
+        }
+        return digits;
+    }
+
+    private static boolean[] parseChainIds( String chainIds ) {
+        if ( chainIds == null || chainIds.trim().isEmpty() ) {
+            return null;
+        }
+        boolean[] chains = new boolean[256];
+        for ( String token : chainIds.trim().split( "[\\s,;]+" ) ) {
+            if ( token.length() != 1 || token.charAt( 0 ) > 255 ) {
+                return null;
+            }
+            chains[token.charAt( 0 )] = true;
+        }
+        return chains;
+    }
+
+}
@@ -0,0 +1,312 @@
+package com.jacobsonmt.idrbind.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Long-lived predictor processes that have already paid for interpreter start and model loading,
+// fed one job at a time over a line protocol on their stdin/stdout:
+//
+//   RUN <input.pdb>\t<chain file>\t<output.pdb>\t<output.csv>   answered by   OK | ERROR <message>
+//   PING                                                         answered by   PONG
+//
+// Other stdout lines are ignored, stderr is kept like a one-shot run's. Closing stdin asks a daemon to exit.
+// Idle daemons are pinged before reuse once they have sat for a while, and a daemon is recycled after
+// a number of jobs or once it (with its children) holds too much memory. If no daemon can be started
+// run() returns null and the caller falls back to running the command once per job.
+@Log4j2
+public class PredictorPool {
+
+    private static final String EXITED = "\u0000exited";
+    private static final long PING_TIMEOUT_MILLIS = 10000;
+    private static final long RETRY_AFTER_MILLIS = 60000;
+
+    private final List<String> command;
+    private final File workingDirectory;
+    private final int size;
+    private final int maxJobs;
+    private final long maxMemoryBytes;
+    private final long startupMillis;
+    private final long healthCheckMillis;
+    private final int outputLines;
+
+    // One permit per daemon. Idle daemons are taken most recently used first, the warmest one.
+    private final Semaphore permits;
+    private final BlockingDeque<Daemon> idle = new LinkedBlockingDeque<>();
+    private final ExecutorService spawner;
+
+    private volatile boolean shutdown = false;
+    private volatile long unavailableUntil = 0;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+
+    public PredictorPool( List<String> command, File workingDirectory, int size, int maxJobs, long maxMemoryBytes,
+                          long startupMillis, long healthCheckMillis, int outputLines ) {
+        this.command = command;
+        this.workingDirectory = workingDirectory;
+        this.size = Math.max( 1, size );
+        this.maxJobs = maxJobs;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.startupMillis = startupMillis;
+        this.healthCheckMillis = healthCheckMillis;
+        this.outputLines = outputLines;
+        this.permits = new Semaphore( this.size );
+        this.spawner = Executors.newFixedThreadPool( this.size, r -> {
+            Thread t = new Thread( r, "predictor-pool" );
+            t.setDaemon( true );
+            return t;
+        } );
+    }
+
+    // Starts the daemons in the background so the first jobs find them warm
+    public void start() {
+        for ( int i = 0; i < size; i++ ) {
+            spawner.submit( this::replenish );
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        spawner.shutdownNow();
+        Daemon daemon;
+        while ( ( daemon = idle.poll() ) != null ) {
+            ProcessRunner.destroyTree( daemon.process );
+        }
+    }
+
+    // Runs one job on a warm daemon, null if none could be started
+    public Outcome run( List<String> args, long timeoutMillis ) throws InterruptedException {
+        if ( shutdown || System.currentTimeMillis() < unavailableUntil ) {
+            return null;
+        }
+
+        permits.acquire();
+        Daemon daemon = null;
+        boolean healthy = false;
+        try {
+            try {
+                daemon = acquire();
+            } catch ( IOException e ) {
+                unavailable( e );
+                return null;
+            }
+
+            try {
+                daemon.send( "RUN " + String.join( "\t", args ) );
+            } catch ( IOException e ) {
+                return new Outcome( -1, false, "Could not reach predictor daemon: " + e.getMessage() );
+            }
+
+            String reply;
+            try {
+                reply = timeoutMillis > 0 ? daemon.replies.poll( timeoutMillis, TimeUnit.MILLISECONDS ) : daemon.replies.take();
+            } catch ( InterruptedException e ) {
+                log.info( "Interrupted while waiting on predictor daemon (" + daemon.process.pid() + "), killing it" );
+                ProcessRunner.destroyTree( daemon.process );
+                throw e;
+            }
+
+            if ( reply == null ) {
+                log.warn( "Predictor daemon (" + daemon.process.pid() + ") timed out after " + timeoutMillis + "ms, killing it" );
+                ProcessRunner.destroyTree( daemon.process );
+                return new Outcome( -1, true, daemon.stderr.toString() );
+            }
+            if ( reply.equals( EXITED ) ) {
+                return new Outcome( daemon.process.exitValue(), false, "Predictor daemon exited: " + daemon.stderr );
+            }
+
+            healthy = true;
+            if ( reply.startsWith( "OK" ) ) {
+                return new Outcome( 0, false, null );
+            }
+            return new Outcome( 1, false, reply.substring( "ERROR".length() ).trim() );
+        } finally {
+            if ( daemon != null ) {
+                release( daemon, healthy );
+            }
+            permits.release();
+        }
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    public long getStarted() {
+        return started.get();
+    }
+
+    public long getRecycled() {
+        return recycled.get();
+    }
+
+    private Daemon acquire() throws IOException, InterruptedException {
+        Daemon daemon;
+        while ( ( daemon = idle.pollFirst() ) != null ) {
+            boolean healthy;
+            try {
+                healthy = daemon.process.isAlive() && ( System.currentTimeMillis() - daemon.lastUsed < healthCheckMillis
+                        || daemon.ping( PING_TIMEOUT_MILLIS ) );
+            } catch ( InterruptedException e ) {
+                idle.addFirst( daemon );
+                throw e;
+            }
+            if ( healthy ) {
+                return daemon;
+            }
+            retire( daemon, "failed health check" );
+        }
+        return spawn();
+    }
+
+    private void release( Daemon daemon, boolean healthy ) {
+        daemon.jobs++;
+        daemon.lastUsed = System.currentTimeMillis();
+
+        String reason = null;
+        if ( !healthy ) {
+            reason = "unhealthy";
+        } else if ( maxJobs > 0 && daemon.jobs >= maxJobs ) {
+            reason = "ran " + daemon.jobs + " jobs";
+        } else if ( maxMemoryBytes > 0 && memory( daemon.process ) > maxMemoryBytes ) {
+            reason = "over memory limit";
+        }
+
+        if ( reason == null && !shutdown && idle.size() < size ) {
+            idle.addFirst( daemon );
+            return;
+        }
+
+        retire( daemon, reason != null ? reason : "surplus" );
+        if ( reason != null && !shutdown ) {
+            try {
+                spawner.submit( this::replenish );
+            } catch ( RejectedExecutionException e ) {
+                // Shutting down
+            }
+        }
+    }
+
+    private void replenish() {
+        if ( shutdown || idle.size() >= size ) {
+            return;
+        }
+        try {
+            idle.addFirst( spawn() );
+        } catch ( IOException e ) {
+            unavailable( e );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Daemon spawn() throws IOException, InterruptedException {
+        Process p = new ProcessBuilder( command ).directory( workingDirectory ).start();
+        Daemon daemon = new Daemon( p, outputLines );
+        if ( !daemon.ping( startupMillis ) ) {
+            ProcessRunner.destroyTree( p );
+            throw new IOException( "Predictor daemon did not become ready: " + daemon.stderr );
+        }
+        started.incrementAndGet();
+        unavailableUntil = 0;
+        log.info( "Started predictor daemon (" + p.pid() + ")" );
+        return daemon;
+    }
+
+    // Asks the daemon to exit, killing it if it hasn't after a grace period
+    private void retire( Daemon daemon, String reason ) {
+        log.info( "Recycling predictor daemon (" + daemon.process.pid() + "): " + reason );
+        recycled.incrementAndGet();
+        try {
+            daemon.stdin.close();
+        } catch ( IOException e ) {
+            // Already gone
+        }
+        CompletableFuture.runAsync( () -> ProcessRunner.destroyTree( daemon.process ),
+                CompletableFuture.delayedExecutor( 5, TimeUnit.SECONDS ) );
+    }
+
+    private void unavailable( IOException e ) {
+        log.error( "Could not start predictor daemon " + command + ", running jobs one-shot for now", e );
+        unavailableUntil = System.currentTimeMillis() + RETRY_AFTER_MILLIS;
+    }
+
+    // Resident memory of the process and its children, 0 where /proc isn't available
+    private static long memory( Process p ) {
+        long total = rss( p.pid() );
+        for ( ProcessHandle child : (Iterable<ProcessHandle>) p.descendants()::iterator ) {
+            total += rss( child.pid() );
+        }
+        return total;
+    }
+
+    private static long rss( long pid ) {
+        Path status = Paths.get( "/proc", Long.toString( pid ), "status" );
+        try {
+            for ( String line : Files.readAllLines( status, StandardCharsets.UTF_8 ) ) {
+                if ( line.startsWith( "VmRSS:" ) ) {
+                    return Long.parseLong( line.replaceAll( "\\D", "" ) ) * 1024;
+                }
+            }
+        } catch ( IOException | NumberFormatException e ) {
+            // Not Linux or the process is gone
+        }
+        return 0;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Outcome {
+        private final int exitCode;
+        private final boolean timedOut;
+        private final String error;
+    }
+
+    private static final class Daemon {
+        private final Process process;
+        private final Writer stdin;
+        private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        private final ProcessRunner.OutputTail stderr;
+        private int jobs = 0;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        Daemon( Process process, int outputLines ) {
+            this.process = process;
+            this.stdin = new BufferedWriter( new OutputStreamWriter( process.getOutputStream(), StandardCharsets.UTF_8 ) );
+            this.stderr = new ProcessRunner.OutputTail( outputLines );
+            ProcessRunner.drain( process.getInputStream(), line -> {
+                if ( line.equals( "PONG" ) || line.startsWith( "OK" ) || line.startsWith( "ERROR" ) ) {
+                    replies.add( line );
+                }
+            }, "daemon-stdout-" + process.pid() );
+            ProcessRunner.drain( process.getErrorStream(), stderr::add, "daemon-stderr-" + process.pid() );
+            process.onExit().thenRun( () -> replies.add( EXITED ) );
+        }
+
+        synchronized void send( String request ) throws IOException {
+            stdin.write( request );
+            stdin.write( '\n' );
+            stdin.flush();
+        }
+
+        boolean ping( long timeoutMillis ) throws InterruptedException {
+            try {
+                send( "PING" );
+            } catch ( IOException e ) {
+                return false;
+            }
+            return "PONG".equals( replies.poll( timeoutMillis, TimeUnit.MILLISECONDS ) );
+        }
+    }
+
+}
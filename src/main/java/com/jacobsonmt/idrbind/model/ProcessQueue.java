@@ -0,0 +1,145 @@
+package com.jacobsonmt.idrbind.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Index over the jobs handed to the executor (waiting or running). Per-user counts are kept
+// in lock-free counters and queue positions are answered on read from an order-statistics
+// tree over waiting tickets, so nothing here walks the whole queue.
+// Jobs in the fast lane wait in a line of their own and their positions are counted within it.
+public class ProcessQueue {
+
+    private final Set<IDRBindJob> jobs = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> jobsByUser = new ConcurrentHashMap<>();
+    private final TicketIndex waiting = new TicketIndex();
+    private final TicketIndex fastWaiting = new TicketIndex();
+
+    public void add( IDRBindJob job ) {
+        add( job, false );
+    }
+
+    public void add( IDRBindJob job, boolean fastLane ) {
+        jobs.add( job );
+        jobsByUser.computeIfAbsent( job.getUserId(), k -> new AtomicInteger() ).incrementAndGet();
+        job.setFastLane( fastLane );
+        job.setQueueTicket( line( job ).add() );
+        job.setProcessQueue( this );
+    }
+
+    // Job has been picked up by a worker
+    public void start( IDRBindJob job ) {
+        Long ticket = job.getQueueTicket();
+        if ( ticket != null ) {
+            line( job ).remove( ticket );
+            job.setQueueTicket( null );
+        }
+    }
+
+    // Job finished or was taken back out of the executor
+    public void remove( IDRBindJob job ) {
+        start( job );
+        job.setProcessQueue( null );
+        if ( jobs.remove( job ) ) {
+            jobsByUser.computeIfPresent( job.getUserId(), ( k, cnt ) -> cnt.decrementAndGet() == 0 ? null : cnt );
+        }
+    }
+
+    // 1-based position among waiting jobs, null once the job is running
+    public Integer position( IDRBindJob job ) {
+        Long ticket = job.getQueueTicket();
+        return ticket == null ? null : line( job ).rank( ticket );
+    }
+
+    public int count( String userId ) {
+        AtomicInteger cnt = jobsByUser.get( userId );
+        return cnt == null ? 0 : cnt.get();
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    public int waitingCount() {
+        return waiting.size() + fastWaiting.size();
+    }
+
+    public Collection<IDRBindJob> jobs() {
+        return Collections.unmodifiableSet( jobs );
+    }
+
+    private TicketIndex line( IDRBindJob job ) {
+        return job.isFastLane() ? fastWaiting : waiting;
+    }
+
+    // Fenwick tree over a sliding window of monotonically increasing tickets.
+    // When the window fills up it is rebased on the oldest live ticket and resized.
+    private static final class TicketIndex {
+        private long base = 0;
+        private long next = 0;
+        private int size = 0;
+        private int[] tree = new int[1025];
+        private BitSet live = new BitSet();
+
+        synchronized long add() {
+            long ticket = next++;
+            if ( ticket - base >= tree.length - 1 ) {
+                rebuild( ticket );
+            }
+            live.set( (int) ( ticket - base ) );
+            update( (int) ( ticket - base ) + 1, 1 );
+            size++;
+            return ticket;
+        }
+
+        synchronized void remove( long ticket ) {
+            int idx = (int) ( ticket - base );
+            if ( idx >= 0 && live.get( idx ) ) {
+                live.clear( idx );
+                update( idx + 1, -1 );
+                size--;
+            }
+        }
+
+        synchronized int rank( long ticket ) {
+            int idx = (int) ( ticket - base ) + 1;
+            int sum = 0;
+            for ( int i = idx; i > 0; i -= i & -i ) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private void update( int i, int delta ) {
+            for ( ; i < tree.length; i += i & -i ) {
+                tree[i] += delta;
+            }
+        }
+
+        private void rebuild( long ticket ) {
+            int first = live.nextSetBit( 0 );
+            long newBase = first < 0 ? ticket : base + first;
+
+            int capacity = 1024;
+            while ( capacity <= 2 * ( ticket - newBase + 1 ) ) {
+                capacity <<= 1;
+            }
+
+            BitSet oldLive = live;
+            long oldBase = base;
+            base = newBase;
+            tree = new int[capacity + 1];
+            live = new BitSet( capacity );
+            for ( int i = oldLive.nextSetBit( 0 ); i >= 0; i = oldLive.nextSetBit( i + 1 ) ) {
+                int idx = (int) ( oldBase + i - base );
+                live.set( idx );
+                update( idx + 1, 1 );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.jacobsonmt.idrbind.model;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Runs an external command while draining stdout and stderr on their own threads so a chatty
+// process can never block on a full pipe. Only the last few lines of each stream are kept.
+// The whole process tree is killed if the timeout passes or the calling thread is interrupted.
+@Log4j2
+public class ProcessRunner {
+
+    private final List<String> command;
+    private final File workingDirectory;
+    private final long timeoutMillis;
+
+    private final OutputTail stdout;
+    private final OutputTail stderr;
+
+    @Getter
+    private boolean timedOut = false;
+
+    public ProcessRunner( List<String> command, File workingDirectory, long timeoutMillis, int maxOutputLines ) {
+        this.command = command;
+        this.workingDirectory = workingDirectory;
+        this.timeoutMillis = timeoutMillis;
+        this.stdout = new OutputTail( maxOutputLines );
+        this.stderr = new OutputTail( maxOutputLines );
+    }
+
+    public int run() throws IOException, InterruptedException {
+        Process p = new ProcessBuilder( command ).directory( workingDirectory ).start();
+
+        Thread outDrainer = drain( p.getInputStream(), stdout::add, "stdout-" + p.pid() );
+        Thread errDrainer = drain( p.getErrorStream(), stderr::add, "stderr-" + p.pid() );
+
+        try {
+            if ( timeoutMillis > 0 ) {
+                if ( !p.waitFor( timeoutMillis, TimeUnit.MILLISECONDS ) ) {
+                    log.warn( "Command " + command + " timed out after " + timeoutMillis + "ms, killing it" );
+                    timedOut = true;
+                    destroyTree( p );
+                    p.waitFor();
+                }
+            } else {
+                p.waitFor();
+            }
+        } catch ( InterruptedException e ) {
+            log.info( "Interrupted while waiting on command " + command + ", killing it" );
+            destroyTree( p );
+            throw e;
+        } finally {
+            // Pipes close once the process tree is gone, don't wait forever on orphans holding them open
+            outDrainer.join( 1000 );
+            errDrainer.join( 1000 );
+        }
+
+        return p.exitValue();
+    }
+
+    public String getStdout() {
+        return stdout.toString();
+    }
+
+    public String getStderr() {
+        return stderr.toString();
+    }
+
+    static void destroyTree( Process p ) {
+        p.descendants().forEach( ProcessHandle::destroyForcibly );
+        p.destroyForcibly();
+    }
+
+    static Thread drain( InputStream stream, Consumer<String> lines, String name ) {
+        Thread t = new Thread( () -> {
+            try ( BufferedReader reader = new BufferedReader( new InputStreamReader( stream, StandardCharsets.UTF_8 ) ) ) {
+                String line;
+                while ( ( line = reader.readLine() ) != null ) {
+                    lines.accept( line );
+                }
+            } catch ( IOException e ) {
+                // Stream closed under us when the process was killed
+                log.debug( e );
+            }
+        }, name );
+        t.setDaemon( true );
+        t.start();
+        return t;
+    }
+
+    static final class OutputTail {
+        private final int maxLines;
+        private final Deque<String> lines = new ArrayDeque<>();
+
+        OutputTail( int maxLines ) {
+            this.maxLines = Math.max( 1, maxLines );
+        }
+
+        synchronized void add( String line ) {
+            if ( lines.size() >= maxLines ) {
+                lines.removeFirst();
+            }
+            lines.addLast( line );
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.join( "\r\n", lines );
+        }
+    }
+
+}
@@ -1,29 +1,161 @@
 package com.jacobsonmt.idrbind.model;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+// Saved jobs ordered by when they expire, so a purge only looks at jobs that are due. Viewing a job moves
+// its saveExpiredDate out without touching the index, an entry that comes due for a job with a later date
+// is put back for that date instead. Jobs still running when their entry comes due are looked at again
+// a recheck period later.
+// Since saveExpiredDate is last use plus a constant, the head of the index is also the least recently used
+// job, which is what gets evicted first once saved jobs go over their memory budget.
 public class PurgeOldJobs implements Runnable {
 
-    private Map<String, IDRBindJob> savedJobs;
+    // A recheck period of zero would put running jobs straight back at the head of the index
+    private static final long MIN_RECHECK_MILLIS = 60 * 1000;
 
-    public PurgeOldJobs( Map<String, IDRBindJob> savedJobs ) {
+    private final Map<String, IDRBindJob> savedJobs;
+    private final Consumer<IDRBindJob> onPurge;
+    private final long recheckMillis;
+    private final long budgetBytes;
+    // How long before its expiry a job may be evicted, purge-after less the minimum retention
+    private final long evictAheadMillis;
+
+    // Guarded by itself, only held to add or take an entry and never while purging
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public PurgeOldJobs( Map<String, IDRBindJob> savedJobs, Consumer<IDRBindJob> onPurge, long recheckMillis,
+                         long budgetBytes, long purgeAfterMillis, long minRetentionMillis ) {
         this.savedJobs = savedJobs;
+        this.onPurge = onPurge;
+        this.recheckMillis = Math.max( MIN_RECHECK_MILLIS, recheckMillis );
+        this.budgetBytes = budgetBytes;
+        this.evictAheadMillis = Math.max( 0, purgeAfterMillis - minRetentionMillis );
+    }
+
+    // Once per saved job, when it is first saved
+    public void schedule( IDRBindJob job ) {
+        long size = job.approximateSize();
+        retainedBytes.addAndGet( size );
+        add( new Expiry( job, dueDate( job, System.currentTimeMillis() ), size ) );
+    }
+
+    public boolean isOverBudget() {
+        return budgetBytes > 0 && retainedBytes.get() > budgetBytes;
     }
 
     @Override
-    public void run() {
-        synchronized ( savedJobs ) {
-            for ( Iterator<Map.Entry<String, IDRBindJob>> it = savedJobs.entrySet().iterator(); it.hasNext(); ) {
-                Map.Entry<String, IDRBindJob> entry = it.next();
-                IDRBindJob job = entry.getValue();
-                if ( job.isComplete() && System.currentTimeMillis() > job.getSaveExpiredDate() ) {
-                    job.setSaved( false );
-                    job.setSaveExpiredDate( null );
-                    it.remove();
-                }
+    public synchronized void run() {
+        Expiry expiry;
+        while ( ( expiry = pollDue( System.currentTimeMillis() ) ) != null ) {
+            if ( !retained( expiry ) ) {
+                continue;
+            }
+            IDRBindJob job = expiry.job;
+            long now = System.currentTimeMillis();
+            if ( job.isComplete() && job.getSaveExpiredDate() != null && now >= job.getSaveExpiredDate() ) {
+                purge( expiry );
+            } else {
+                add( expiry.at( dueDate( job, now ) ) );
             }
         }
     }
 
-}
\ No newline at end of file
+    // Least recently used completed jobs go first until saved jobs fit the budget again, whether or not they
+    // are due. Jobs used within the minimum retention are kept even over budget.
+    public synchronized void evictOverBudget() {
+        // Put back once done, so running jobs at the head aren't looked at again
+        List<Expiry> kept = new ArrayList<>();
+        Expiry expiry;
+        while ( isOverBudget() && ( expiry = pollDue( System.currentTimeMillis() + evictAheadMillis ) ) != null ) {
+            if ( !retained( expiry ) ) {
+                continue;
+            }
+            IDRBindJob job = expiry.job;
+            long now = System.currentTimeMillis();
+            long due = dueDate( job, now );
+            if ( job.isComplete() && due <= now + evictAheadMillis ) {
+                evicted.incrementAndGet();
+                purge( expiry );
+            } else {
+                // Used since it was indexed or still running
+                kept.add( expiry.at( due ) );
+            }
+        }
+        kept.forEach( this::add );
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    private void add( Expiry expiry ) {
+        synchronized ( expiries ) {
+            expiries.add( expiry );
+        }
+    }
+
+    // Head of the index if it is due by the given time
+    private Expiry pollDue( long by ) {
+        synchronized ( expiries ) {
+            Expiry head = expiries.peek();
+            return head != null && head.due <= by ? expiries.poll() : null;
+        }
+    }
+
+    private boolean retained( Expiry expiry ) {
+        if ( savedJobs.get( expiry.job.getJobId() ) == expiry.job ) {
+            return true;
+        }
+        // Removed some other way
+        retainedBytes.addAndGet( -expiry.size );
+        return false;
+    }
+
+    private void purge( Expiry expiry ) {
+        IDRBindJob job = expiry.job;
+        if ( savedJobs.remove( job.getJobId(), job ) ) {
+            retainedBytes.addAndGet( -expiry.size );
+            job.setSaved( false );
+            job.setSaveExpiredDate( null );
+            onPurge.accept( job );
+        }
+    }
+
+    private long dueDate( IDRBindJob job, long now ) {
+        Long expires = job.getSaveExpiredDate();
+        return job.isComplete() && expires != null ? expires : now + recheckMillis;
+    }
+
+    private static final class Expiry implements Comparable<Expiry> {
+        private final IDRBindJob job;
+        private final long due;
+        private final long size;
+
+        Expiry( IDRBindJob job, long due, long size ) {
+            this.job = job;
+            this.due = due;
+            this.size = size;
+        }
+
+        Expiry at( long due ) {
+            return new Expiry( job, due, size );
+        }
+
+        @Override
+        public int compareTo( Expiry o ) {
+            return Long.compare( due, o.due );
+        }
+    }
+
+}
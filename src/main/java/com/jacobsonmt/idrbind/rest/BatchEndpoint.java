@@ -0,0 +1,255 @@
+package com.jacobsonmt.idrbind.rest;
+
+import com.jacobsonmt.idrbind.controllers.ClientAddress;
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.model.IDRBindJobResult;
+import com.jacobsonmt.idrbind.model.InputTooLargeException;
+import com.jacobsonmt.idrbind.model.JobBatch;
+import com.jacobsonmt.idrbind.services.JobManager;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+// Many structures in one request, either as repeated pdbFile parts (with optional matching proteinChains)
+// or as a zip of name.pdb files with optional name.chain files next to them. Structures without their own
+// chains use proteinChain. Each structure is streamed into its job's input file under max-input-bytes.
+// Jobs are queued in one go under a batch id whose progress and combined results are available below.
+// Batch jobs don't send per-job emails.
+@Log4j2
+@RequestMapping("/api")
+@RestController
+public class BatchEndpoint {
+
+    @Autowired
+    private JobManager jobManager;
+
+    @Autowired
+    private ApplicationSettings applicationSettings;
+
+    @RequestMapping(value = "/batch", method = RequestMethod.POST, consumes = {MediaType.MULTIPART_FORM_DATA_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public JobBatch.BatchVO submitBatch(@RequestParam(value = "label", required = false, defaultValue = "") String label,
+                                        @RequestParam(value = "pdbFile", required = false) MultipartFile[] pdbFiles,
+                                        @RequestParam(value = "proteinChains", required = false) String[] proteinChains,
+                                        @RequestParam(value = "archive", required = false) MultipartFile archive,
+                                        @RequestParam(value = "proteinChain", required = false, defaultValue = "") String proteinChain,
+                                        @RequestParam(value = "hidden", required = false, defaultValue = "true") boolean hidden,
+                                        HttpServletRequest request,
+                                        HttpServletResponse response) throws IOException {
+        String userId = ClientAddress.of( request );
+
+        // Structures are streamed straight into their jobs' input files as they are read
+        List<IDRBindJob> jobs = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        try {
+            if ( pdbFiles != null ) {
+                for ( int i = 0; i < pdbFiles.length; i++ ) {
+                    if ( pdbFiles[i].isEmpty() ) continue;
+                    if ( pdbFiles[i].getSize() > applicationSettings.getMaxInputBytes() ) {
+                        throw new InputTooLargeException( applicationSettings.getMaxInputBytes() );
+                    }
+                    String chains = proteinChains != null && i < proteinChains.length ? proteinChains[i] : proteinChain;
+                    try ( InputStream in = pdbFiles[i].getInputStream() ) {
+                        addJob( jobs, names, userId, label, baseName( pdbFiles[i].getOriginalFilename(), i ), in, chains, hidden );
+                    }
+                }
+            }
+            if ( archive != null && !archive.isEmpty() ) {
+                // Chain files may come after their structures, collect them first
+                Map<String, String> chains = new HashMap<>();
+                readArchive( archive, ( name, extension, in ) -> {
+                    if ( extension.equals( "chain" ) ) {
+                        chains.put( name, read( in ).trim() );
+                    }
+                } );
+                readArchive( archive, ( name, extension, in ) -> {
+                    if ( extension.equals( "pdb" ) || extension.equals( "ent" ) ) {
+                        addJob( jobs, names, userId, label, name, in, chains.getOrDefault( name, proteinChain ), hidden );
+                    }
+                } );
+            }
+        } catch ( IllegalArgumentException | InputTooLargeException e ) {
+            jobs.forEach( jobManager::discard );
+            response.sendError( e instanceof InputTooLargeException ? HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE :
+                    HttpServletResponse.SC_BAD_REQUEST, e.getMessage() );
+            return null;
+        } catch ( IOException | RuntimeException e ) {
+            jobs.forEach( jobManager::discard );
+            throw e;
+        }
+
+        if ( jobs.isEmpty() ) {
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST, "No structures submitted" );
+            return null;
+        }
+
+        // All or nothing, rather than the user limit rejecting whatever comes past it one job at a time
+        int room = jobManager.userQueueRoom( userId );
+        if ( jobs.size() > room ) {
+            jobs.forEach( jobManager::discard );
+            response.sendError( HttpStatus.TOO_MANY_REQUESTS.value(), "Too many jobs queued for this user, room for "
+                    + room + " more" );
+            return null;
+        }
+
+        JobBatch batch = jobManager.submitBatch( userId, jobs );
+        log.info( "Batch Submitted: " + batch.getBatchId() );
+        return batch.toValueObject();
+    }
+
+    @RequestMapping(value = "/batch/{batchId}", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public JobBatch.BatchVO getBatch(@PathVariable String batchId) {
+        JobBatch batch = jobManager.getBatch( batchId );
+        if ( batch == null ) {
+            return null;
+        }
+        return batch.toValueObject();
+    }
+
+    // Cancels every job of the batch that hasn't completed yet, only for the address that submitted it
+    @RequestMapping(value = "/batch/{batchId}/cancel", method = RequestMethod.POST, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public JobBatch.BatchVO cancelBatch(@PathVariable String batchId, HttpServletRequest request,
+                                        HttpServletResponse response) throws IOException {
+        JobBatch batch = jobManager.getBatch( batchId );
+        if ( batch == null ) {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND, "Batch Not Found" );
+            return null;
+        }
+        if ( !ClientAddress.of( request ).equals( batch.getUserId() ) ) {
+            response.sendError( HttpServletResponse.SC_FORBIDDEN, "Only the submitter can cancel a batch" );
+            return null;
+        }
+        log.info( "Cancelled " + jobManager.cancelBatch( batch ) + " job(s) of batch (" + batchId + ")" );
+        return batch.toValueObject();
+    }
+
+    // Results of all successfully completed jobs so far, plus a manifest with the status of every job
+    @RequestMapping(value = "/batch/{batchId}/results", method = RequestMethod.GET)
+    public void getBatchResults(@PathVariable String batchId, HttpServletResponse response) throws IOException {
+        JobBatch batch = jobManager.getBatch( batchId );
+        if ( batch == null ) {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND, "Batch Not Found" );
+            return;
+        }
+
+        response.setContentType( "application/zip" );
+        response.setHeader( HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + batchId + "-results.zip\"" );
+
+        Set<String> names = new HashSet<>();
+        try ( ZipOutputStream zip = new ZipOutputStream( response.getOutputStream() ) ) {
+            StringBuilder manifest = new StringBuilder( "jobId,label,status\n" );
+            for ( IDRBindJob job : batch.getJobs() ) {
+                manifest.append( job.getJobId() ).append( ',' ).append( csv( job.getLabel() ) ).append( ',' )
+                        .append( csv( job.getStatus() ) ).append( '\n' );
+
+                IDRBindJobResult result = job.getResult();
+                if ( !job.isComplete() || job.isFailed() || result == null || result.getResultPDBFile() == null ) {
+                    continue;
+                }
+
+                String name = names.add( job.getLabel() ) ? job.getLabel() : job.getLabel() + "-" + job.getJobId();
+                addFile( zip, name + "-result.pdb", result.getResultPDBFile() );
+                addFile( zip, name + "-result.csv", result.getResultCSVFile() );
+            }
+
+            zip.putNextEntry( new ZipEntry( "batch.csv" ) );
+            Writer writer = new OutputStreamWriter( zip, StandardCharsets.UTF_8 );
+            writer.write( manifest.toString() );
+            writer.flush();
+            zip.closeEntry();
+        }
+    }
+
+    private void readArchive( MultipartFile archive, ArchiveEntryHandler handler ) throws IOException {
+        try ( ZipInputStream zip = new ZipInputStream( archive.getInputStream() ) ) {
+            ZipEntry entry;
+            while ( ( entry = zip.getNextEntry() ) != null ) {
+                if ( entry.isDirectory() ) continue;
+
+                String fileName = entry.getName().substring( entry.getName().lastIndexOf( '/' ) + 1 );
+                int dot = fileName.lastIndexOf( '.' );
+                if ( fileName.startsWith( "." ) || dot <= 0 ) continue;
+
+                handler.handle( fileName.substring( 0, dot ), fileName.substring( dot + 1 ).toLowerCase(), zip );
+            }
+        }
+    }
+
+    private void addJob( List<IDRBindJob> jobs, Set<String> names, String userId, String label, String name,
+                         InputStream pdb, String chains, boolean hidden ) throws IOException {
+        if ( !names.add( name ) ) {
+            throw new IllegalArgumentException( "Duplicate structure name: " + name );
+        }
+        if ( jobs.size() >= applicationSettings.getMaxBatchJobs() ) {
+            throw new IllegalArgumentException( "Too many structures, at most " + applicationSettings.getMaxBatchJobs() + " per batch" );
+        }
+
+        String jobLabel = label.isEmpty() ? name : label + "-" + name;
+        jobs.add( jobManager.createJob( userId, jobLabel, pdb, chains, "", hidden ) );
+    }
+
+    // Reads a small text entry, bounded since archives can expand far beyond their upload size
+    private String read( InputStream in ) throws IOException {
+        long limit = applicationSettings.getMaxInputBytes();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ( ( n = in.read( buffer ) ) != -1 ) {
+            if ( out.size() + n > limit ) {
+                throw new InputTooLargeException( limit );
+            }
+            out.write( buffer, 0, n );
+        }
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    private static String baseName( String fileName, int index ) {
+        if ( fileName == null || fileName.isEmpty() ) {
+            return "structure-" + ( index + 1 );
+        }
+        String name = fileName.substring( Math.max( fileName.lastIndexOf( '/' ), fileName.lastIndexOf( '\\' ) ) + 1 );
+        int dot = name.lastIndexOf( '.' );
+        return dot > 0 ? name.substring( 0, dot ) : name;
+    }
+
+    private static String csv( String value ) {
+        if ( value == null ) {
+            return "";
+        }
+        return value.contains( "," ) || value.contains( "\"" ) ? "\"" + value.replace( "\"", "\"\"" ) + "\"" : value;
+    }
+
+    private interface ArchiveEntryHandler {
+        void handle( String name, String extension, InputStream in ) throws IOException;
+    }
+
+    private static void addFile( ZipOutputStream zip, String name, Path file ) throws IOException {
+        if ( file == null || !Files.exists( file ) ) {
+            return;
+        }
+        zip.putNextEntry( new ZipEntry( name ) );
+        Files.copy( file, zip );
+        zip.closeEntry();
+    }
+
+}
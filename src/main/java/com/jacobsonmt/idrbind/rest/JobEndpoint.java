@@ -1,13 +1,23 @@
 package com.jacobsonmt.idrbind.rest;
 
+import com.jacobsonmt.idrbind.controllers.ClientAddress;
 import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.model.InputTooLargeException;
+import com.jacobsonmt.idrbind.services.JobEvents;
 import com.jacobsonmt.idrbind.services.JobManager;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
 
 @Log4j2
 @RequestMapping("/api")
@@ -17,14 +27,24 @@ public class JobEndpoint {
     @Autowired
     private JobManager jobManager;
 
+    @Autowired
+    private JobEvents jobEvents;
+
+    @Autowired
+    private ApplicationSettings applicationSettings;
+
     @RequestMapping(value = "/job/{jobId}", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
-    public IDRBindJob.IDRBindJobVO getJob(@PathVariable String jobId) {
-        return createJobValueObject( jobManager.getSavedJob( jobId ) );
+    public IDRBindJob.IDRBindJobVO getJob(@PathVariable String jobId,
+                                          @RequestParam(value = "includeResult", required = false, defaultValue = "false") boolean includeResult,
+                                          WebRequest webRequest) {
+        return createJobValueObject( jobManager.getSavedJob( jobId ), includeResult, webRequest );
     }
 
     @RequestMapping(value = "/job", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
-    public IDRBindJob.IDRBindJobVO getJob2(@RequestParam(value = "jobId") String jobId) {
-        return createJobValueObject( jobManager.getSavedJob( jobId ) );
+    public IDRBindJob.IDRBindJobVO getJob2(@RequestParam(value = "jobId") String jobId,
+                                           @RequestParam(value = "includeResult", required = false, defaultValue = "false") boolean includeResult,
+                                           WebRequest webRequest) {
+        return createJobValueObject( jobManager.getSavedJob( jobId ), includeResult, webRequest );
     }
 
     @RequestMapping(value = "/job/{jobId}/status", method = RequestMethod.GET, produces = {MediaType.TEXT_PLAIN_VALUE})
@@ -49,6 +69,50 @@ public class JobEndpoint {
         return "Job Not Found";
     }
 
+    // Takes a job out of the queue or kills its predictor, 409 if it has already completed
+    @RequestMapping(value = "/job/{jobId}/cancel", method = RequestMethod.POST, produces = {MediaType.TEXT_PLAIN_VALUE})
+    public String cancelJob(@PathVariable String jobId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        IDRBindJob job = jobManager.getSavedJob( jobId );
+        if ( job == null ) {
+            log.info( "Job Not Found" );
+            response.sendError( HttpServletResponse.SC_NOT_FOUND, "Job Not Found" );
+            return null;
+        }
+        if ( !ClientAddress.of( request ).equals( job.getUserId() ) ) {
+            response.sendError( HttpServletResponse.SC_FORBIDDEN, "Only the submitter can cancel a job" );
+            return null;
+        }
+        if ( !jobManager.cancel( job ) ) {
+            response.setStatus( HttpServletResponse.SC_CONFLICT );
+            return job.getStatus();
+        }
+        log.info( "Job Cancelled: " + jobId );
+        return "Job Cancelled: " + jobId;
+    }
+
+    // Only the caller's own jobs, the user is the client address just as on submission
+    @RequestMapping(value = "/user/cancel", method = RequestMethod.POST, produces = {MediaType.TEXT_PLAIN_VALUE})
+    public String cancelUserJobs(HttpServletRequest request) {
+        return "Jobs Cancelled: " + jobManager.cancelUserJobs( ClientAddress.of( request ) );
+    }
+
+    // Pushes status/position changes instead of polling the endpoints above, closed once the job completes
+    @RequestMapping(value = "/job/{jobId}/events", method = RequestMethod.GET, produces = {MediaType.TEXT_EVENT_STREAM_VALUE})
+    public SseEmitter getJobEvents(@PathVariable String jobId, HttpServletResponse response) throws IOException {
+        IDRBindJob job = jobManager.getSavedJob( jobId );
+        if ( job == null ) {
+            log.info( "Job Not Found" );
+            response.sendError( HttpServletResponse.SC_NOT_FOUND, "Job Not Found" );
+            return null;
+        }
+        return eventStream( jobEvents.subscribeJob( job ), response );
+    }
+
+    @RequestMapping(value = "/user/events", method = RequestMethod.GET, produces = {MediaType.TEXT_EVENT_STREAM_VALUE})
+    public SseEmitter getUserEvents(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        return eventStream( jobEvents.subscribeUser( ClientAddress.of( request ) ), response );
+    }
+
     @RequestMapping(value = "/submitJob", method = RequestMethod.GET, produces = {MediaType.TEXT_PLAIN_VALUE})
     public String submitJob(@RequestParam(value = "label") String label,
                                 @RequestParam(value = "pdbContent") String pdbContent,
@@ -57,22 +121,88 @@ public class JobEndpoint {
                                 @RequestParam(value = "hidden", required = false, defaultValue = "false") boolean hidden,
                                 HttpServletRequest request
                                 ) {
-        String ipAddress = request.getHeader( "X-FORWARDED-FOR" );
-        if ( ipAddress == null ) {
-            ipAddress = request.getRemoteAddr();
+        IDRBindJob job = jobManager.createJob( ClientAddress.of( request ), label, pdbContent, proteinChain, email, hidden );
+        return submit( job );
+    }
+
+    // Structure as a multipart file part, streamed to disk rather than read into memory
+    @RequestMapping(value = "/submitJob", method = RequestMethod.POST, consumes = {MediaType.MULTIPART_FORM_DATA_VALUE},
+            produces = {MediaType.TEXT_PLAIN_VALUE})
+    public String submitJobUpload(@RequestParam(value = "label") String label,
+                                  @RequestParam(value = "pdbFile") MultipartFile pdbFile,
+                                  @RequestParam(value = "proteinChain") String proteinChain,
+                                  @RequestParam(value = "email", required = false, defaultValue = "") String email,
+                                  @RequestParam(value = "hidden", required = false, defaultValue = "false") boolean hidden,
+                                  HttpServletRequest request,
+                                  HttpServletResponse response
+                                  ) throws IOException {
+        try ( InputStream in = pdbFile.getInputStream() ) {
+            return submitStream( ClientAddress.of( request ), label, in, pdbFile.getSize(), proteinChain, email, hidden, response );
         }
+    }
 
-        IDRBindJob job = jobManager.createJob( label, label, pdbContent, proteinChain, email, hidden );
+    // Structure as the raw request body, other parameters in the query string
+    @RequestMapping(value = "/submitJob", method = RequestMethod.POST,
+            consumes = {MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE, "chemical/x-pdb"},
+            produces = {MediaType.TEXT_PLAIN_VALUE})
+    public String submitJobBody(@RequestParam(value = "label") String label,
+                                @RequestParam(value = "proteinChain") String proteinChain,
+                                @RequestParam(value = "email", required = false, defaultValue = "") String email,
+                                @RequestParam(value = "hidden", required = false, defaultValue = "false") boolean hidden,
+                                HttpServletRequest request,
+                                HttpServletResponse response
+                                ) throws IOException {
+        return submitStream( ClientAddress.of( request ), label, request.getInputStream(), request.getContentLengthLong(),
+                proteinChain, email, hidden, response );
+    }
+
+    private String submitStream( String userId, String label, InputStream pdb, long size, String proteinChain, String email,
+                                 boolean hidden, HttpServletResponse response ) throws IOException {
+        IDRBindJob job;
+        try {
+            // Known sizes are checked before reading anything, the rest while streaming
+            if ( size > applicationSettings.getMaxInputBytes() ) {
+                throw new InputTooLargeException( applicationSettings.getMaxInputBytes() );
+            }
+            job = jobManager.createJob( userId, label, pdb, proteinChain, email, hidden );
+        } catch ( InputTooLargeException e ) {
+            log.info( "Job Rejected: " + e.getMessage() );
+            response.setStatus( HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE );
+            return "Rejected: " + e.getMessage();
+        }
+        return submit( job );
+    }
+
+    private String submit( IDRBindJob job ) {
         jobManager.submit( job );
+        if ( job.isFailed() ) {
+            log.info( "Job " + job.getStatus() + ": " + job.getJobId() );
+            return job.getStatus();
+        }
         log.info( "Job Submitted: " + job.getJobId() );
         return "Job Submitted: " + job.getJobId();
     }
 
-    private IDRBindJob.IDRBindJobVO createJobValueObject( IDRBindJob job) {
+    private SseEmitter eventStream( SseEmitter emitter, HttpServletResponse response ) throws IOException {
+        if ( emitter == null ) {
+            response.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many subscribers" );
+            return null;
+        }
+        // Keep nginx and friends from buffering the stream
+        response.setHeader( "X-Accel-Buffering", "no" );
+        return emitter;
+    }
+
+    // Answers 304 if the client's copy is current. The validator is taken before the value object so a
+    // change racing with this request at worst costs the client a refetch, never leaves it with stale data.
+    private IDRBindJob.IDRBindJobVO createJobValueObject( IDRBindJob job, boolean includeResult, WebRequest webRequest ) {
         if ( job == null ) {
             return null;
         }
-        return job.toValueObject(true);
+        if ( webRequest.checkNotModified( job.etag() ) ) {
+            return null;
+        }
+        return job.toValueObject( true, includeResult );
     }
 
 
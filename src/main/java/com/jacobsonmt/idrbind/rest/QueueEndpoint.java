@@ -0,0 +1,103 @@
+package com.jacobsonmt.idrbind.rest;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.services.PublicJobView;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Public job queue in DataTables' server-side processing format, one page per request.
+// Columns: 0 job id, 1 label, 2 status, 3 email, 4 submitted. Label and submitted can be sorted on,
+// anything else falls back to queue order. The search box matches label prefixes, the date range includes both
+// days. Given the last job id of the previous page as after, the next page continues from that job rather than
+// skipping start jobs.
+@RequestMapping("/api")
+@RestController
+public class QueueEndpoint {
+
+    private static final int MAX_PAGE_LENGTH = 500;
+
+    @Autowired
+    private PublicJobView publicJobView;
+
+    @RequestMapping(value = "/queue", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public QueuePage getQueue(@RequestParam(value = "draw", required = false, defaultValue = "0") int draw,
+                              @RequestParam(value = "start", required = false, defaultValue = "0") int start,
+                              @RequestParam(value = "length", required = false, defaultValue = "10") int length,
+                              @RequestParam(value = "after", required = false) String after,
+                              @RequestParam(value = "order[0][column]", required = false) Integer orderColumn,
+                              @RequestParam(value = "order[0][dir]", required = false, defaultValue = "asc") String orderDir,
+                              @RequestParam(value = "search[value]", required = false) String search,
+                              @RequestParam(value = "status", required = false) String status,
+                              @RequestParam(value = "label", required = false) String label,
+                              @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                              @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to
+                              ) {
+        // DataTables sends -1 for "all"
+        if ( length < 0 || length > MAX_PAGE_LENGTH ) {
+            length = MAX_PAGE_LENGTH;
+        }
+
+        PublicJobView.SortColumn sort = PublicJobView.SortColumn.DEFAULT;
+        if ( orderColumn != null && orderColumn == 1 ) {
+            sort = PublicJobView.SortColumn.LABEL;
+        } else if ( orderColumn != null && orderColumn == 4 ) {
+            sort = PublicJobView.SortColumn.SUBMITTED;
+        }
+
+        PublicJobView.State state = null;
+        if ( status != null && !status.isEmpty() ) {
+            try {
+                state = PublicJobView.State.valueOf( status.toUpperCase() );
+            } catch ( IllegalArgumentException e ) {
+                // Unknown status, ignore the filter
+            }
+        }
+
+        String labelPrefix = label != null && !label.isEmpty() ? label : search;
+
+        PublicJobView.Page page = publicJobView.query( state, labelPrefix, from, to, sort, "asc".equalsIgnoreCase( orderDir ),
+                after, start, length );
+
+        List<QueueRow> rows = page.getRows().stream().map( QueueRow::of ).collect( Collectors.toList() );
+        return new QueuePage( draw, page.getTotal(), page.getFiltered(), rows );
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class QueuePage {
+        private final int draw;
+        private final int recordsTotal;
+        private final int recordsFiltered;
+        private final List<QueueRow> data;
+    }
+
+    // Only what the queue table shows, results are left out
+    @Getter
+    @AllArgsConstructor
+    public static class QueueRow {
+        private final String jobId;
+        private final String label;
+        private final String status;
+        private final String state;
+        private final String email;
+        private final Date submitted;
+
+        static QueueRow of( IDRBindJob.IDRBindJobVO vo ) {
+            return new QueueRow( vo.getJobId(), vo.getLabel(), vo.getStatus(), PublicJobView.state( vo ).name().toLowerCase(),
+                    vo.getEmail(), vo.getSubmitted() );
+        }
+    }
+
+}
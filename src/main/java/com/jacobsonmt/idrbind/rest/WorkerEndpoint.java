@@ -0,0 +1,174 @@
+package com.jacobsonmt.idrbind.rest;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.model.JobLeases;
+import com.jacobsonmt.idrbind.services.JobManager;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+
+// Coordinator side of distributed mode. Workers ask for a lease, download the job's inputs, send heartbeats
+// while the predictor runs and finally upload the outputs or report the failure.
+// A lease that was lost (expired and handed to another worker) answers 410 Gone, the worker should give up on it.
+@Log4j2
+@RequestMapping("/api/worker")
+@RestController
+public class WorkerEndpoint {
+
+    private static final String TOKEN_HEADER = "X-Worker-Token";
+
+    @Autowired
+    private JobManager jobManager;
+
+    @Autowired
+    private ApplicationSettings applicationSettings;
+
+    @PostConstruct
+    private void initialize() {
+        String token = applicationSettings.getWorkerToken();
+        if ( applicationSettings.getMode() == ApplicationSettings.Mode.COORDINATOR && ( token == null || token.isEmpty() ) ) {
+            throw new IllegalStateException( "idrbind.settings.worker-token must be set in coordinator mode" );
+        }
+    }
+
+    // Waits up to lease-wait-seconds for a job, 204 if none turned up
+    @RequestMapping(value = "/lease", method = RequestMethod.POST, produces = {MediaType.APPLICATION_JSON_VALUE})
+    public JobLeases.LeaseVO lease(@RequestParam(value = "workerId") String workerId,
+                                   @RequestParam(value = "wait", required = false, defaultValue = "0") int waitSeconds,
+                                   HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException, InterruptedException {
+        if ( !authorized( request, response ) ) {
+            return null;
+        }
+        if ( applicationSettings.getMode() != ApplicationSettings.Mode.COORDINATOR ) {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND, "Not a coordinator" );
+            return null;
+        }
+
+        int wait = Math.max( 0, Math.min( waitSeconds, applicationSettings.getLeaseWaitSeconds() ) );
+        JobLeases.Lease lease = jobManager.leaseJob( workerId, wait * 1000L );
+        if ( lease == null ) {
+            response.setStatus( HttpServletResponse.SC_NO_CONTENT );
+            return null;
+        }
+        return new JobLeases.LeaseVO( lease.getLeaseId(), lease.getJob().getJobId(), lease.getJob().getLabel(),
+                applicationSettings.getLeaseTimeoutSeconds() );
+    }
+
+    @RequestMapping(value = "/lease/{leaseId}/pdb", method = RequestMethod.GET)
+    public void inputPDB(@PathVariable String leaseId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        JobLeases.Lease lease = lease( leaseId, request, response );
+        if ( lease != null ) {
+            sendFile( Paths.get( lease.getJob().getInputPDBFullPath() ), response );
+        }
+    }
+
+    @RequestMapping(value = "/lease/{leaseId}/chain", method = RequestMethod.GET)
+    public void inputChain(@PathVariable String leaseId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        JobLeases.Lease lease = lease( leaseId, request, response );
+        if ( lease != null ) {
+            sendFile( Paths.get( lease.getJob().getInputProteinChainFullPath() ), response );
+        }
+    }
+
+    @RequestMapping(value = "/lease/{leaseId}/heartbeat", method = RequestMethod.POST)
+    public void heartbeat(@PathVariable String leaseId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if ( authorized( request, response ) && jobManager.heartbeat( leaseId ) == null ) {
+            response.sendError( HttpServletResponse.SC_GONE, "Lease lost" );
+        }
+    }
+
+    @RequestMapping(value = "/lease/{leaseId}/result", method = RequestMethod.POST, consumes = {MediaType.MULTIPART_FORM_DATA_VALUE})
+    public void result(@PathVariable String leaseId,
+                       @RequestParam(value = "scoredPdb") MultipartFile scoredPdb,
+                       @RequestParam(value = "csv") MultipartFile csv,
+                       @RequestParam(value = "executionTime", required = false, defaultValue = "0") long executionTime,
+                       @RequestParam(value = "exitCode", required = false) Integer exitCode,
+                       HttpServletRequest request,
+                       HttpServletResponse response) throws IOException {
+        JobLeases.Lease lease = lease( leaseId, request, response );
+        if ( lease == null ) {
+            return;
+        }
+
+        // Into files of this upload's own, a worker that just lost the lease must not overwrite what the new
+        // holder is producing. Completing the lease claims it, only then are they moved into the result store.
+        IDRBindJob job = lease.getJob();
+        Path directory = Files.createDirectories( Paths.get( job.getJobDirectory() ) );
+        Path scoredPDBFile = Files.createTempFile( directory, leaseId + "-", ".pdb" );
+        Path csvFile = Files.createTempFile( directory, leaseId + "-", ".csv" );
+        try {
+            scoredPdb.transferTo( scoredPDBFile.toFile() );
+            csv.transferTo( csvFile.toFile() );
+
+            if ( !jobManager.completeLease( leaseId, scoredPDBFile, csvFile, executionTime, exitCode ) ) {
+                response.sendError( HttpServletResponse.SC_GONE, "Lease lost" );
+            }
+        } finally {
+            // Left over only if the upload failed or the lease was lost
+            Files.deleteIfExists( scoredPDBFile );
+            Files.deleteIfExists( csvFile );
+        }
+    }
+
+    @RequestMapping(value = "/lease/{leaseId}/failure", method = RequestMethod.POST)
+    public void failure(@PathVariable String leaseId,
+                        @RequestParam(value = "executionTime", required = false, defaultValue = "0") long executionTime,
+                        @RequestParam(value = "exitCode", required = false) Integer exitCode,
+                        @RequestParam(value = "timedOut", required = false, defaultValue = "false") boolean timedOut,
+                        @RequestParam(value = "message", required = false, defaultValue = "") String message,
+                        HttpServletRequest request,
+                        HttpServletResponse response) throws IOException {
+        if ( authorized( request, response ) && !jobManager.failLease( leaseId, executionTime, exitCode, timedOut, message ) ) {
+            response.sendError( HttpServletResponse.SC_GONE, "Lease lost" );
+        }
+    }
+
+    private JobLeases.Lease lease( String leaseId, HttpServletRequest request, HttpServletResponse response ) throws IOException {
+        if ( !authorized( request, response ) ) {
+            return null;
+        }
+        JobLeases.Lease lease = jobManager.getLease( leaseId );
+        if ( lease == null ) {
+            response.sendError( HttpServletResponse.SC_GONE, "Lease lost" );
+        }
+        return lease;
+    }
+
+    private boolean authorized( HttpServletRequest request, HttpServletResponse response ) throws IOException {
+        String token = applicationSettings.getWorkerToken();
+        String provided = request.getHeader( TOKEN_HEADER );
+        // Constant time so the token can't be guessed byte by byte, a coordinator never starts without one
+        if ( token != null && !token.isEmpty() && provided != null
+                && MessageDigest.isEqual( token.getBytes( StandardCharsets.UTF_8 ), provided.getBytes( StandardCharsets.UTF_8 ) ) ) {
+            return true;
+        }
+        log.warn( "Rejected worker request from " + request.getRemoteAddr() + " with a bad token" );
+        response.sendError( HttpServletResponse.SC_FORBIDDEN );
+        return false;
+    }
+
+    private static void sendFile( Path file, HttpServletResponse response ) throws IOException {
+        if ( !Files.exists( file ) ) {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+        response.setContentType( MediaType.APPLICATION_OCTET_STREAM_VALUE );
+        response.setContentLengthLong( Files.size( file ) );
+        Files.copy( file, response.getOutputStream() );
+    }
+
+}
@@ -22,11 +22,11 @@ public class EmailService {
     @Autowired
     SiteSettings siteSettings;
 
-    private void sendMessage( String subject, String content, String to ) throws MessagingException {
-        sendMessage( subject, content, to, null );
+    private MimeMessage createMessage( String subject, String content, String to ) throws MessagingException {
+        return createMessage( subject, content, to, null );
     }
 
-    private void sendMessage( String subject, String content, String to, MultipartFile attachment ) throws MessagingException {
+    private MimeMessage createMessage( String subject, String content, String to, MultipartFile attachment ) throws MessagingException {
 
         MimeMessage message = emailSender.createMimeMessage();
 
@@ -41,10 +41,15 @@ public class EmailService {
             helper.addAttachment( attachment.getOriginalFilename(), attachment );
         }
 
-        emailSender.send( message );
+        return message;
 
     }
 
+    // Sends all messages over a single connection to the mail server
+    public void send( MimeMessage... messages ) {
+        emailSender.send( messages );
+    }
+
     public void sendSupportMessage( String message, String name, String email, HttpServletRequest request,
                                     MultipartFile attachment ) throws MessagingException {
         String content =
@@ -54,12 +59,12 @@ public class EmailService {
                         "Message: " + message + "\r\n" +
                         "File Attached: " + String.valueOf( attachment != null && !attachment.getOriginalFilename().equals( "" ) );
 
-        sendMessage( "IDR Bind Help - Contact Support", content, siteSettings.getAdminEmail(), attachment );
+        send( createMessage( "IDR Bind Help - Contact Support", content, siteSettings.getAdminEmail(), attachment ) );
     }
 
-    public void sendJobStartMessage( IDRBindJob job ) throws MessagingException {
+    public MimeMessage createJobStartMessage( IDRBindJob job ) throws MessagingException {
         if ( job.getEmail() == null || job.getEmail().isEmpty() ) {
-            return;
+            return null;
         }
         StringBuilder content = new StringBuilder();
         content.append( "<p>Job Submitted</p>" );
@@ -72,12 +77,12 @@ public class EmailService {
                     + siteSettings.getFullUrl() + "job/" + job.getJobId() + "'</a></p>" );
         }
 
-        sendMessage( "IDB Bind - Job Submitted", content.toString(), job.getEmail() );
+        return createMessage( "IDB Bind - Job Submitted", content.toString(), job.getEmail() );
     }
 
-    public void sendJobCompletionMessage( IDRBindJob job ) throws MessagingException {
+    public MimeMessage createJobCompletionMessage( IDRBindJob job ) throws MessagingException {
         if ( job.getEmail() == null || job.getEmail().isEmpty() ) {
-            return;
+            return null;
         }
         StringBuilder content = new StringBuilder();
         content.append( "<p>Job Complete</p>" );
@@ -90,7 +95,7 @@ public class EmailService {
                     + siteSettings.getFullUrl() + "job/" + job.getJobId() + "'</a></p>" );
         }
 
-        sendMessage( "IDB Bind - Job Complete", content.toString(), job.getEmail() );
+        return createMessage( "IDB Bind - Job Complete", content.toString(), job.getEmail() );
     }
 
 }
\ No newline at end of file
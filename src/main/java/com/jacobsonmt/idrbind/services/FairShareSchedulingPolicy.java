@@ -0,0 +1,98 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Deficit round-robin over users with waiting jobs. Each turn a user earns its weight in credit
+// and may dispatch while it has credit for the job at the head of its queue, so a user with
+// weight 2 gets twice the dispatches of a user with weight 1 and a newly arrived user is served
+// within one round no matter how much others have queued. Rounds in which nobody could afford
+// a job are credited all at once, so tiny weights cost no extra searching.
+public class FairShareSchedulingPolicy implements SchedulingPolicy {
+
+    private final Map<String, Double> weights;
+    private final double defaultWeight;
+
+    private final Deque<String> ring = new ArrayDeque<>();
+    private final Map<String, Double> deficits = new HashMap<>();
+
+    public FairShareSchedulingPolicy( Map<String, Double> weights, double defaultWeight ) {
+        this.weights = weights != null ? weights : Collections.emptyMap();
+        this.defaultWeight = defaultWeight > 0 ? defaultWeight : 1.0;
+    }
+
+    @Override
+    public void enqueued( String userId ) {
+        if ( !deficits.containsKey( userId ) ) {
+            deficits.put( userId, 0.0 );
+            ring.addLast( userId );
+        }
+    }
+
+    @Override
+    public String nextUser( Function<String, IDRBindJob> head, Predicate<String> eligible ) {
+        while ( !ring.isEmpty() ) {
+            // Eligible users that couldn't afford their head job this round, and how many more rounds
+            // until the first of them can
+            List<String> waiting = new ArrayList<>();
+            double rounds = Double.POSITIVE_INFINITY;
+            for ( int i = ring.size(); i > 0 && !ring.isEmpty(); i-- ) {
+                String userId = ring.peekFirst();
+                IDRBindJob job = head.apply( userId );
+
+                if ( job == null ) {
+                    // Idle users don't bank credit
+                    ring.pollFirst();
+                    deficits.remove( userId );
+                    continue;
+                }
+
+                if ( !eligible.test( userId ) ) {
+                    ring.addLast( ring.pollFirst() );
+                    continue;
+                }
+
+                double deficit = deficits.get( userId );
+                double cost = cost( job );
+                if ( deficit >= cost ) {
+                    return userId;
+                }
+
+                // Turn over, earn this round's credit and wait for the next one
+                deficit += weight( userId );
+                deficits.put( userId, deficit );
+                ring.addLast( ring.pollFirst() );
+                waiting.add( userId );
+                rounds = Math.min( rounds, Math.ceil( ( cost - deficit ) / weight( userId ) ) );
+            }
+            if ( waiting.isEmpty() ) {
+                return null;
+            }
+            if ( rounds > 0 ) {
+                // Same credit as going round that many times with nobody dispatching
+                for ( String userId : waiting ) {
+                    deficits.put( userId, deficits.get( userId ) + rounds * weight( userId ) );
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void dispatched( String userId, IDRBindJob job ) {
+        deficits.computeIfPresent( userId, ( k, deficit ) -> Math.max( 0.0, deficit - cost( job ) ) );
+    }
+
+    protected double cost( IDRBindJob job ) {
+        return 1.0;
+    }
+
+    private double weight( String userId ) {
+        Double weight = weights.get( userId );
+        return weight != null && weight > 0 ? weight : defaultWeight;
+    }
+
+}
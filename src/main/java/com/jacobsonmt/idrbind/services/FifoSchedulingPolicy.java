@@ -0,0 +1,42 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Oldest waiting job first, regardless of who submitted it
+public class FifoSchedulingPolicy implements SchedulingPolicy {
+
+    private final Set<String> users = new LinkedHashSet<>();
+
+    @Override
+    public void enqueued( String userId ) {
+        users.add( userId );
+    }
+
+    @Override
+    public String nextUser( Function<String, IDRBindJob> head, Predicate<String> eligible ) {
+        String next = null;
+        long oldest = Long.MAX_VALUE;
+        for ( Iterator<String> it = users.iterator(); it.hasNext(); ) {
+            String userId = it.next();
+            IDRBindJob job = head.apply( userId );
+            if ( job == null ) {
+                it.remove();
+            } else if ( job.getSequence() < oldest && eligible.test( userId ) ) {
+                oldest = job.getSequence();
+                next = userId;
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public void dispatched( String userId, IDRBindJob job ) {
+    }
+
+}
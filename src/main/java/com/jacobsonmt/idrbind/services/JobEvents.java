@@ -0,0 +1,238 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pushes job status changes to Server-Sent Event subscribers, per job or per user, so clients don't
+// have to poll. JobManager reports changes from its lifecycle hooks; events are built on the caller's
+// thread but written by a single sender thread so a slow client never holds up a job worker.
+// Streams are async requests, an idle subscriber holds no request thread.
+//
+// Only subscribed jobs are looked at: when positions shift, just the watched waiting jobs are
+// re-evaluated, and an event is only sent when what the subscriber last saw has changed.
+@Log4j2
+@Service
+public class JobEvents {
+
+    @Autowired
+    ApplicationSettings applicationSettings;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final Map<String, Set<Subscription>> jobSubscriptions = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> userSubscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    // Writes events and keep-alives, one thread so events per stream stay in order
+    private ScheduledExecutorService sender;
+
+    @PostConstruct
+    private void initialize() {
+        sender = Executors.newSingleThreadScheduledExecutor();
+        // Comments keep proxies from closing idle streams and reveal clients that went away
+        sender.scheduleWithFixedDelay( this::keepAlive, 30, 30, TimeUnit.SECONDS );
+
+        Gauge.builder( "idrbind.events.subscribers", subscribers, AtomicInteger::get )
+                .description( "Open job event streams" ).register( meterRegistry );
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sender.shutdownNow();
+        for ( Set<Subscription> subscriptions : jobSubscriptions.values() ) {
+            subscriptions.forEach( s -> s.emitter.complete() );
+        }
+        for ( Set<Subscription> subscriptions : userSubscriptions.values() ) {
+            subscriptions.forEach( s -> s.emitter.complete() );
+        }
+    }
+
+    // Stream of a single job, closed after its completion event. Null if too many streams are open.
+    public SseEmitter subscribeJob( IDRBindJob job ) {
+        Subscription subscription = subscribe( jobSubscriptions, job.getJobId() );
+        if ( subscription != null ) {
+            // Current state first so the client doesn't have to fetch it separately
+            publish( subscription, JobEvent.of( job ) );
+        }
+        return subscription == null ? null : subscription.emitter;
+    }
+
+    // Stream of every job of a user from now on. Null if too many streams are open.
+    public SseEmitter subscribeUser( String userId ) {
+        Subscription subscription = subscribe( userSubscriptions, userId );
+        return subscription == null ? null : subscription.emitter;
+    }
+
+    public void jobChanged( IDRBindJob job ) {
+        Set<Subscription> forJob = jobSubscriptions.get( job.getJobId() );
+        Set<Subscription> forUser = job.getUserId() == null ? null : userSubscriptions.get( job.getUserId() );
+        if ( forJob == null && forUser == null ) {
+            return;
+        }
+
+        JobEvent event = JobEvent.of( job );
+        if ( forJob != null ) {
+            forJob.forEach( s -> publish( s, event ) );
+        }
+        if ( forUser != null ) {
+            forUser.forEach( s -> {
+                if ( event.complete ) {
+                    s.watching.remove( job.getJobId() );
+                } else {
+                    s.watching.put( job.getJobId(), job );
+                }
+                publish( s, event );
+            } );
+        }
+    }
+
+    // Queue moved up, re-evaluate waiting jobs that somebody is watching
+    public void positionsChanged( Map<String, IDRBindJob> jobs ) {
+        for ( String jobId : jobSubscriptions.keySet() ) {
+            IDRBindJob job = jobs.get( jobId );
+            if ( job != null && job.getQueueTicket() != null ) {
+                jobChanged( job );
+            }
+        }
+        for ( Set<Subscription> subscriptions : userSubscriptions.values() ) {
+            for ( Subscription subscription : subscriptions ) {
+                for ( IDRBindJob job : subscription.watching.values() ) {
+                    if ( job.getQueueTicket() != null ) {
+                        publish( subscription, JobEvent.of( job ) );
+                    }
+                }
+            }
+        }
+    }
+
+    public int getSubscribers() {
+        return subscribers.get();
+    }
+
+    private Subscription subscribe( Map<String, Set<Subscription>> subscriptions, String key ) {
+        if ( subscribers.incrementAndGet() > applicationSettings.getMaxEventSubscribers() ) {
+            subscribers.decrementAndGet();
+            log.warn( "Too many event subscribers, refusing stream for (" + key + ")" );
+            return null;
+        }
+
+        Subscription subscription = new Subscription( subscriptions == jobSubscriptions,
+                new SseEmitter( applicationSettings.getEventStreamTimeoutMinutes() * 60L * 1000L ) );
+        subscriptions.computeIfAbsent( key, k -> ConcurrentHashMap.newKeySet() ).add( subscription );
+
+        Runnable unsubscribe = () -> {
+            if ( subscription.closed.compareAndSet( false, true ) ) {
+                subscriptions.computeIfPresent( key, ( k, set ) -> {
+                    set.remove( subscription );
+                    return set.isEmpty() ? null : set;
+                } );
+                subscribers.decrementAndGet();
+            }
+        };
+        subscription.emitter.onCompletion( unsubscribe );
+        subscription.emitter.onTimeout( unsubscribe );
+        subscription.emitter.onError( e -> unsubscribe.run() );
+        return subscription;
+    }
+
+    private void publish( Subscription subscription, JobEvent event ) {
+        String state = event.status + "|" + event.position;
+        String previous = subscription.lastSent.put( event.jobId, state );
+        if ( Objects.equals( previous, state ) ) {
+            return;
+        }
+
+        try {
+            sender.execute( () -> send( subscription, event ) );
+        } catch ( RejectedExecutionException e ) {
+            // Shutting down
+        }
+    }
+
+    private void send( Subscription subscription, JobEvent event ) {
+        if ( subscription.closed.get() ) {
+            return;
+        }
+        try {
+            subscription.emitter.send( SseEmitter.event()
+                    .id( event.jobId )
+                    .name( event.complete ? "complete" : "status" )
+                    .data( event, MediaType.APPLICATION_JSON ) );
+            if ( event.complete && subscription.singleJob ) {
+                subscription.emitter.complete();
+            }
+        } catch ( IOException | IllegalStateException e ) {
+            // Client went away
+            subscription.emitter.completeWithError( e );
+        }
+    }
+
+    private void keepAlive() {
+        for ( Set<Subscription> subscriptions : jobSubscriptions.values() ) {
+            subscriptions.forEach( this::keepAlive );
+        }
+        for ( Set<Subscription> subscriptions : userSubscriptions.values() ) {
+            subscriptions.forEach( this::keepAlive );
+        }
+    }
+
+    private void keepAlive( Subscription subscription ) {
+        try {
+            subscription.emitter.send( SseEmitter.event().comment( "keep-alive" ) );
+        } catch ( IOException | IllegalStateException e ) {
+            subscription.emitter.completeWithError( e );
+        }
+    }
+
+    private static final class Subscription {
+        private final boolean singleJob;
+        private final SseEmitter emitter;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // Last status|position sent per job, to skip events that change nothing
+        private final Map<String, String> lastSent = new ConcurrentHashMap<>();
+        // Unfinished jobs seen by a user stream, whose positions need following
+        private final Map<String, IDRBindJob> watching = new ConcurrentHashMap<>();
+
+        Subscription( boolean singleJob, SseEmitter emitter ) {
+            this.singleJob = singleJob;
+            this.emitter = emitter;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class JobEvent {
+        private final String jobId;
+        private final String status;
+        private final Integer position;
+        private final boolean running;
+        private final boolean complete;
+        private final boolean failed;
+
+        static JobEvent of( IDRBindJob job ) {
+            return new JobEvent( job.getJobId(), job.getStatus(), job.getPosition(), job.isRunning(),
+                    job.isComplete(), job.isFailed() );
+        }
+    }
+
+}
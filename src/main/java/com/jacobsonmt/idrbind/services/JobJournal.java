@@ -0,0 +1,238 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.model.IDRBindJobResult;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Append-only log of job lifecycle events so queued jobs and saved results survive a restart.
+// Every event carries the job's full metadata, so replay keeps the last record per job.
+// Compaction writes the live jobs to a snapshot and starts an empty journal, which keeps
+// replay time proportional to the number of live jobs rather than to history.
+@Log4j2
+@Service
+public class JobJournal {
+
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final String SNAPSHOT_FILE = "snapshot.log";
+
+    public enum Event {
+        SNAPSHOT, SUBMIT, START, COMPLETE, FAIL, PURGE
+    }
+
+    @Autowired
+    ApplicationSettings applicationSettings;
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false );
+
+    private BufferedWriter writer;
+    private int eventsSinceCompaction = 0;
+
+    @PostConstruct
+    private void initialize() {
+        if ( applicationSettings.getMode() == ApplicationSettings.Mode.WORKER ) {
+            // The journal belongs to the coordinator, a worker sharing its directory must not replay or truncate it
+            log.info( "Job journal disabled in worker mode" );
+        } else if ( applicationSettings.isJournalEnabled() ) {
+            try {
+                Files.createDirectories( directory() );
+                writer = openJournal( StandardOpenOption.APPEND );
+            } catch ( IOException e ) {
+                log.error( "Could not open job journal in " + directory() + ", jobs will not survive a restart", e );
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void destroy() throws IOException {
+        if ( writer != null ) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    public void record( Event event, IDRBindJob job ) {
+        if ( writer == null ) {
+            return;
+        }
+
+        JobRecord record = JobRecord.of( job );
+        record.setEvent( event );
+        record.setTime( System.currentTimeMillis() );
+
+        synchronized ( this ) {
+            try {
+                writer.write( mapper.writeValueAsString( record ) );
+                writer.newLine();
+                writer.flush();
+                eventsSinceCompaction++;
+            } catch ( IOException e ) {
+                log.error( "Failed to journal " + event + " for job (" + job.getJobId() + ")", e );
+            }
+        }
+    }
+
+    public boolean needsCompaction() {
+        return writer != null && eventsSinceCompaction >= applicationSettings.getJournalCompactEvents();
+    }
+
+    // Replaces snapshot and journal with a snapshot of the given jobs
+    public synchronized void compact( Collection<IDRBindJob> jobs ) {
+        if ( writer == null ) {
+            return;
+        }
+
+        Path tmp = directory().resolve( SNAPSHOT_FILE + ".tmp" );
+        try {
+            try ( BufferedWriter snapshot = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) ) {
+                long now = System.currentTimeMillis();
+                for ( IDRBindJob job : jobs ) {
+                    JobRecord record = JobRecord.of( job );
+                    record.setEvent( Event.SNAPSHOT );
+                    record.setTime( now );
+                    snapshot.write( mapper.writeValueAsString( record ) );
+                    snapshot.newLine();
+                }
+            }
+            Files.move( tmp, directory().resolve( SNAPSHOT_FILE ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+            writer.close();
+            writer = openJournal( StandardOpenOption.TRUNCATE_EXISTING );
+            eventsSinceCompaction = 0;
+            log.info( "Compacted job journal to " + jobs.size() + " jobs" );
+        } catch ( IOException e ) {
+            log.error( "Failed to compact job journal", e );
+        }
+    }
+
+    // Latest record of every job that has not been purged, in order of first appearance
+    public synchronized Collection<JobRecord> replay() {
+        Map<String, JobRecord> jobs = new LinkedHashMap<>();
+        if ( writer == null ) {
+            return jobs.values();
+        }
+
+        for ( String file : new String[]{SNAPSHOT_FILE, JOURNAL_FILE} ) {
+            Path path = directory().resolve( file );
+            if ( !Files.exists( path ) ) continue;
+
+            try ( BufferedReader reader = Files.newBufferedReader( path, StandardCharsets.UTF_8 ) ) {
+                String line;
+                while ( ( line = reader.readLine() ) != null ) {
+                    if ( line.isEmpty() ) continue;
+                    JobRecord record;
+                    try {
+                        record = mapper.readValue( line, JobRecord.class );
+                    } catch ( IOException e ) {
+                        // Most likely a line torn by a crash mid-write
+                        log.warn( "Skipping unreadable journal entry in " + file );
+                        continue;
+                    }
+                    if ( record.getEvent() == Event.PURGE ) {
+                        jobs.remove( record.getJobId() );
+                    } else {
+                        jobs.put( record.getJobId(), record );
+                    }
+                }
+            } catch ( IOException e ) {
+                log.error( "Failed to read " + path, e );
+            }
+        }
+
+        log.info( "Replayed " + jobs.size() + " jobs from journal" );
+        return jobs.values();
+    }
+
+    private Path directory() {
+        return Paths.get( applicationSettings.getJournalDirectory() );
+    }
+
+    private BufferedWriter openJournal( StandardOpenOption mode ) throws IOException {
+        return Files.newBufferedWriter( directory().resolve( JOURNAL_FILE ), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode );
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    public static class JobRecord {
+        private Event event;
+        private long time;
+
+        private String jobId;
+        private String userId;
+        private String label;
+        private String email;
+        private boolean hidden;
+        private String cacheKey;
+        private String batchId;
+        private int residueCount;
+        private String jobDirectory;
+        private String inputPDBFullPath;
+        private String inputProteinChainFullPath;
+        private String outputScoredPDBFullPath;
+        private String outputCSVFullPath;
+        private Date submittedDate;
+
+        private String status;
+        private boolean complete;
+        private boolean failed;
+        private long executionTime;
+        private Integer exitCode;
+        private Long saveExpiredDate;
+        private String resultPDBFile;
+        private String resultCSVFile;
+
+        static JobRecord of( IDRBindJob job ) {
+            JobRecord record = new JobRecord();
+            record.jobId = job.getJobId();
+            record.userId = job.getUserId();
+            record.label = job.getLabel();
+            record.email = job.getEmail();
+            record.hidden = job.isHidden();
+            record.cacheKey = job.getCacheKey();
+            record.batchId = job.getBatchId();
+            record.residueCount = job.getResidueCount();
+            record.jobDirectory = job.getJobDirectory();
+            record.inputPDBFullPath = job.getInputPDBFullPath();
+            record.inputProteinChainFullPath = job.getInputProteinChainFullPath();
+            record.outputScoredPDBFullPath = job.getOutputScoredPDBFullPath();
+            record.outputCSVFullPath = job.getOutputCSVFullPath();
+            record.submittedDate = job.getSubmittedDate();
+            record.status = job.getStatus();
+            record.complete = job.isComplete();
+            record.failed = job.isFailed();
+            record.executionTime = job.getExecutionTime();
+            record.exitCode = job.getExitCode();
+            record.saveExpiredDate = job.getSaveExpiredDate();
+
+            IDRBindJobResult result = job.getResult();
+            if ( result != null && result.getResultPDBFile() != null ) {
+                record.resultPDBFile = result.getResultPDBFile().toString();
+                record.resultCSVFile = result.getResultCSVFile().toString();
+            }
+            return record;
+        }
+    }
+
+}
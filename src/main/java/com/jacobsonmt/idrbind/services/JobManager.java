@@ -2,19 +2,41 @@ package com.jacobsonmt.idrbind.services;
 
 import com.jacobsonmt.idrbind.model.IDRBindJob;
 import com.jacobsonmt.idrbind.model.IDRBindJobResult;
+import com.jacobsonmt.idrbind.model.InputTooLargeException;
+import com.jacobsonmt.idrbind.model.JobBatch;
+import com.jacobsonmt.idrbind.model.JobLeases;
+import com.jacobsonmt.idrbind.model.PdbParser;
+import com.jacobsonmt.idrbind.model.PredictorPool;
+import com.jacobsonmt.idrbind.model.ProcessQueue;
 import com.jacobsonmt.idrbind.model.PurgeOldJobs;
 import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import javax.mail.MessagingException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Log4j2
 @Service
@@ -24,33 +46,129 @@ public class JobManager {
     ApplicationSettings applicationSettings;
 
     @Autowired
-    EmailService emailService;
+    NotificationQueue notificationQueue;
 
-    // Main executor to process jobs
-    private ExecutorService executor;
+    @Autowired
+    ResultCache resultCache;
+
+    @Autowired
+    ResultStore resultStore;
+
+    @Autowired
+    JobJournal jobJournal;
+
+    @Autowired
+    PublicJobView publicJobView;
+
+    @Autowired
+    JobEvents jobEvents;
 
-    // Contains a copy of the processing queue of jobs internal to executor.
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    // Main executor to process jobs, bounded both in workers and in backlog
+    private ThreadPoolExecutor executor;
+
+    // Workers only small jobs are handed to, null unless fast-lane-workers is set
+    private ThreadPoolExecutor fastLane;
+
+    // Index of the jobs handed to the executor (waiting or running).
     // It is non-trivial to extract a list of running/waiting jobs in the executor
-    // so we maintain a copy in sync with the real thing.
-    private List<IDRBindJob> jobQueueMirror = new LinkedList<>();
+    // so we maintain one in sync with the real thing.
+    private final ProcessQueue processQueue = new ProcessQueue();
+
+    // In coordinator mode jobs are leased to remote workers from here instead of run by the executor
+    private JobLeases jobLeases;
+
+    // Warm predictor processes, one per worker, when a predictor daemon is configured
+    private PredictorPool predictorPool;
 
     // Secondary user queues or waiting lines. One specific to each user/session.
-    private Map<String, Queue<IDRBindJob>> userQueues = new ConcurrentHashMap<>();
+    private Map<String, Deque<IDRBindJob>> userQueues = new ConcurrentHashMap<>();
+    private final AtomicInteger userQueuedJobs = new AtomicInteger();
+    private final AtomicLong submissionSequence = new AtomicLong();
+
+    // Picks which user queue feeds the executor next, guarded by dispatchLock
+    private SchedulingPolicy schedulingPolicy;
+    private final Object dispatchLock = new Object();
+
+    // Jobs waiting on or running the predictor keyed by input hash, the first job is the one actually
+    // executing and the rest are identical submissions that will share its result
+    private Map<String, List<IDRBindJob>> inFlightJobs = new ConcurrentHashMap<>();
 
     // Contains map of token to saved job for future viewing
     private Map<String, IDRBindJob> savedJobs = new ConcurrentHashMap<>();
 
-    // Used to periodically purge the old saved jobs
+    // Jobs submitted together, kept until all of their jobs are purged
+    private Map<String, JobBatch> batches = new ConcurrentHashMap<>();
+
+    // Used to periodically purge the old saved jobs and compact the journal
     private ScheduledExecutorService scheduler;
 
+    // Saved jobs by expiry, also evicts them early when they go over the memory budget
+    private PurgeOldJobs purgeOldJobs;
+
+    // Jobs interrupted by shutdown must not be journaled as failed, they are resumed on restart
+    private volatile boolean shuttingDown = false;
+
+    // Time from creation to start, time spent in the executor's queue, and predictor run time
+    private Timer waitTimer;
+    private Timer processWaitTimer;
+    private Timer executionTimer;
+
     @PostConstruct
     private void initialize() {
-        executor = Executors.newSingleThreadExecutor();
+        int workers = resolveConcurrentJobs();
+        log.info( "Processing up to " + workers + " jobs at once" );
+        // At least one general worker is left, so both lanes together never run more than concurrent-jobs
+        int fastWorkers = applicationSettings.getMode() == ApplicationSettings.Mode.COORDINATOR ? 0
+                : Math.max( 0, Math.min( applicationSettings.getFastLaneWorkers(), workers - 1 ) );
+        if ( fastWorkers > 0 ) {
+            log.info( "Keeping " + fastWorkers + " of them for structures of at most "
+                    + applicationSettings.getFastLaneMaxResidues() + " residues" );
+            fastLane = createExecutor( fastWorkers );
+        }
+        executor = createExecutor( workers - fastWorkers );
+        schedulingPolicy = createSchedulingPolicy();
+        log.info( "Scheduling jobs with " + schedulingPolicy.getClass().getSimpleName() );
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        if ( applicationSettings.getMode() == ApplicationSettings.Mode.STANDALONE ) {
+            // Shared by both lanes
+            predictorPool = createPredictorPool( applicationSettings, workers );
+        }
+
+        if ( applicationSettings.getMode() == ApplicationSettings.Mode.COORDINATOR ) {
+            log.info( "Leasing jobs to remote workers" );
+            jobLeases = new JobLeases( applicationSettings.getProcessQueueCapacity() );
+            long interval = Math.max( 1, applicationSettings.getLeaseTimeoutSeconds() / 4 );
+            scheduler.scheduleWithFixedDelay( this::expireLeases, interval, interval, TimeUnit.SECONDS );
+        }
+
+        purgeOldJobs = new PurgeOldJobs( savedJobs, this::onJobPurged,
+                applicationSettings.getPurgeSavedJobsTimeHours() * 60L * 60L * 1000L,
+                applicationSettings.getSavedJobsMemoryMb() * 1024L * 1024L,
+                applicationSettings.getPurgeAfterHours() * 60L * 60L * 1000L,
+                applicationSettings.getSavedJobsMinRetentionMinutes() * 60L * 1000L );
+
+        registerMetrics();
+
+        boolean worker = applicationSettings.getMode() == ApplicationSettings.Mode.WORKER;
+        if ( !worker ) {
+            restoreJobs();
+        }
+
         if ( applicationSettings.isPurgeSavedJobs() ) {
-            scheduler = Executors.newSingleThreadScheduledExecutor();
-            // Checks every hour for old jobs
-            scheduler.scheduleAtFixedRate( new PurgeOldJobs( savedJobs ), 0,
-                    applicationSettings.getPurgeSavedJobsTimeHours(), TimeUnit.HOURS );
+            // Only looks at jobs that are due, cheap enough to run often
+            scheduler.scheduleWithFixedDelay( purgeOldJobs, 0, 1, TimeUnit.MINUTES );
+        }
+        if ( !worker ) {
+            scheduler.scheduleWithFixedDelay( () -> {
+                if ( jobJournal.needsCompaction() ) {
+                    jobJournal.compact( savedJobs.values() );
+                }
+            }, 1, 1, TimeUnit.MINUTES );
         }
 
     }
@@ -58,8 +176,213 @@ public class JobManager {
     @PreDestroy
     public void destroy() {
         log.info( "JobManager destroyed" );
+        shuttingDown = true;
         executor.shutdownNow();
-        scheduler.shutdownNow();
+        if ( fastLane != null ) {
+            fastLane.shutdownNow();
+        }
+        if ( scheduler != null ) {
+            scheduler.shutdownNow();
+        }
+        if ( predictorPool != null ) {
+            predictorPool.shutdown();
+        }
+    }
+
+    // Once the backlog is full further jobs are rejected by the executor and wait in their user queue
+    private ThreadPoolExecutor createExecutor( int workers ) {
+        return new ThreadPoolExecutor( workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>( Math.max( 1, applicationSettings.getProcessQueueCapacity() ) ),
+                new ThreadPoolExecutor.AbortPolicy() );
+    }
+
+    // Null unless a predictor daemon is configured
+    static PredictorPool createPredictorPool( ApplicationSettings applicationSettings, int size ) {
+        String daemon = applicationSettings.getPredictorDaemonCommand();
+        if ( daemon == null || daemon.trim().isEmpty() ) {
+            return null;
+        }
+
+        log.info( "Keeping " + size + " warm predictor daemon(s) running: " + daemon );
+        PredictorPool pool = new PredictorPool( Collections.singletonList( "./" + daemon.trim() ),
+                new File( applicationSettings.getCommandWorkingDirectory() ), size,
+                applicationSettings.getPredictorDaemonMaxJobs(),
+                applicationSettings.getPredictorDaemonMaxMemoryMb() * 1024L * 1024L,
+                applicationSettings.getPredictorDaemonStartupSeconds() * 1000L,
+                applicationSettings.getPredictorDaemonHealthCheckSeconds() * 1000L,
+                applicationSettings.getCommandOutputLines() );
+        pool.start();
+        return pool;
+    }
+
+    private void registerMetrics() {
+        Gauge.builder( "idrbind.queue.depth", userQueuedJobs, AtomicInteger::get )
+                .tag( "stage", "user" ).description( "Jobs waiting in user queues" ).register( meterRegistry );
+        Gauge.builder( "idrbind.queue.depth", processQueue, ProcessQueue::waitingCount )
+                .tag( "stage", "process" ).description( "Jobs waiting in the executor" ).register( meterRegistry );
+        Gauge.builder( "idrbind.queue.depth", processQueue, q -> q.size() - q.waitingCount() )
+                .tag( "stage", "running" ).description( "Jobs being processed" ).register( meterRegistry );
+        Gauge.builder( "idrbind.queue.depth", inFlightJobs, m -> m.values().stream().mapToInt( l -> l.size() - 1 ).sum() )
+                .tag( "stage", "identical" ).description( "Jobs waiting on an identical job" ).register( meterRegistry );
+        Gauge.builder( "idrbind.queue.users", userQueues, m -> m.values().stream().filter( q -> !q.isEmpty() ).count() )
+                .description( "Users with jobs in their user queue" ).register( meterRegistry );
+        Gauge.builder( "idrbind.queue.user.max", userQueues, m -> m.values().stream().mapToInt( Deque::size ).max().orElse( 0 ) )
+                .description( "Longest user queue" ).register( meterRegistry );
+        Gauge.builder( "idrbind.workers", executor, ThreadPoolExecutor::getMaximumPoolSize )
+                .description( "Jobs processed at once" ).register( meterRegistry );
+        if ( fastLane != null ) {
+            Gauge.builder( "idrbind.workers.fast", fastLane, ThreadPoolExecutor::getMaximumPoolSize )
+                    .description( "Further jobs processed at once, small structures only" ).register( meterRegistry );
+        }
+        Gauge.builder( "idrbind.jobs.saved", savedJobs, Map::size )
+                .description( "Jobs kept for viewing" ).register( meterRegistry );
+        Gauge.builder( "idrbind.jobs.saved.memory", purgeOldJobs, PurgeOldJobs::getRetainedBytes )
+                .baseUnit( "bytes" ).description( "Approximate heap used by saved jobs" ).register( meterRegistry );
+        FunctionCounter.builder( "idrbind.jobs.evicted", purgeOldJobs, PurgeOldJobs::getEvicted )
+                .description( "Expired jobs purged to stay within the saved job memory budget" ).register( meterRegistry );
+        Gauge.builder( "idrbind.batches", batches, Map::size )
+                .description( "Batches kept for viewing" ).register( meterRegistry );
+        if ( predictorPool != null ) {
+            Gauge.builder( "idrbind.predictor.daemons.idle", predictorPool, PredictorPool::idleCount )
+                    .description( "Warm predictor daemons waiting for a job" ).register( meterRegistry );
+            FunctionCounter.builder( "idrbind.predictor.daemons.started", predictorPool, PredictorPool::getStarted )
+                    .register( meterRegistry );
+            FunctionCounter.builder( "idrbind.predictor.daemons.recycled", predictorPool, PredictorPool::getRecycled )
+                    .register( meterRegistry );
+        }
+        if ( jobLeases != null ) {
+            Gauge.builder( "idrbind.queue.depth", jobLeases, JobLeases::waitingCount )
+                    .tag( "stage", "lease" ).description( "Jobs waiting for a remote worker" ).register( meterRegistry );
+            Gauge.builder( "idrbind.leases", jobLeases, JobLeases::leaseCount )
+                    .description( "Jobs leased to remote workers" ).register( meterRegistry );
+            Gauge.builder( "idrbind.leases.workers", jobLeases,
+                    l -> l.leases().stream().map( JobLeases.Lease::getWorkerId ).distinct().count() )
+                    .description( "Remote workers holding a lease" ).register( meterRegistry );
+        }
+
+        waitTimer = Timer.builder( "idrbind.job.wait" ).description( "Time from submission until processing starts" )
+                .publishPercentileHistogram().register( meterRegistry );
+        processWaitTimer = Timer.builder( "idrbind.job.process.wait" ).description( "Time spent waiting in the executor" )
+                .publishPercentileHistogram().register( meterRegistry );
+        executionTimer = Timer.builder( "idrbind.job.execution" ).description( "Predictor run time" )
+                .publishPercentileHistogram().register( meterRegistry );
+    }
+
+    // Counts how jobs end: completed, failed, timeout, rejected, cached or identical
+    private void countOutcome( String outcome ) {
+        meterRegistry.counter( "idrbind.jobs.finished", "outcome", outcome ).increment();
+    }
+
+    private SchedulingPolicy createSchedulingPolicy() {
+        switch ( applicationSettings.getSchedulingPolicy() ) {
+            case FIFO:
+                return new FifoSchedulingPolicy();
+            case FAIR_SHARE:
+            default:
+                return new FairShareSchedulingPolicy( applicationSettings.getUserWeights(), applicationSettings.getDefaultUserWeight() );
+        }
+    }
+
+    private int resolveConcurrentJobs() {
+        String concurrentJobs = applicationSettings.getConcurrentJobs();
+        if ( concurrentJobs != null && !concurrentJobs.trim().equalsIgnoreCase( "auto" ) ) {
+            return Math.max( 1, Integer.parseInt( concurrentJobs.trim() ) );
+        }
+
+        // Auto: one job per core, limited by the physical memory left over after the JVM heap
+        int workers = Runtime.getRuntime().availableProcessors();
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if ( os instanceof com.sun.management.OperatingSystemMXBean && applicationSettings.getJobMemoryMb() > 0 ) {
+            long freeForJobs = ( (com.sun.management.OperatingSystemMXBean) os ).getTotalPhysicalMemorySize()
+                    - Runtime.getRuntime().maxMemory();
+            workers = (int) Math.min( workers, freeForJobs / ( applicationSettings.getJobMemoryMb() * 1024L * 1024L ) );
+        }
+        return Math.max( 1, workers );
+    }
+
+    // Rebuilds saved jobs from the journal and resubmits those that never finished
+    private void restoreJobs() {
+        List<IDRBindJob> interrupted = new ArrayList<>();
+        Map<String, List<IDRBindJob>> batchJobs = new LinkedHashMap<>();
+        for ( JobJournal.JobRecord record : jobJournal.replay() ) {
+            IDRBindJob job = restoreJob( record );
+            if ( job.getBatchId() != null ) {
+                batchJobs.computeIfAbsent( job.getBatchId(), k -> new ArrayList<>() ).add( job );
+            }
+            if ( job.isComplete() ) {
+                saveJob( job );
+                if ( !job.isFailed() ) {
+                    resultCache.put( job.getCacheKey(), job.getResult() );
+                }
+            } else {
+                log.info( "Resubmitting interrupted job (" + job.getJobId() + ") for user: (" + job.getUserId() + ")" );
+                interrupted.add( job );
+            }
+        }
+
+        for ( Map.Entry<String, List<IDRBindJob>> entry : batchJobs.entrySet() ) {
+            IDRBindJob first = entry.getValue().get( 0 );
+            batches.put( entry.getKey(), new JobBatch( entry.getKey(), first.getUserId(), first.getSubmittedDate(), entry.getValue() ) );
+        }
+
+        submitAll( interrupted );
+        new ArrayList<>( batches.values() ).forEach( this::releaseUnsaved );
+
+        // Start from a fresh snapshot so the next restart only replays what happens from here on
+        jobJournal.compact( savedJobs.values() );
+    }
+
+    private IDRBindJob restoreJob( JobJournal.JobRecord record ) {
+        IDRBindJob.IDRBindJobBuilder jobBuilder = IDRBindJob.builder();
+
+        jobBuilder.jobId( record.getJobId() );
+
+        // Static Resources
+        jobBuilder.command( applicationSettings.getCommand() );
+        jobBuilder.commandWorkingDirectory( applicationSettings.getCommandWorkingDirectory() );
+        jobBuilder.commandTimeoutMillis( applicationSettings.getCommandTimeoutMinutes() * 60L * 1000L );
+        jobBuilder.commandOutputLines( applicationSettings.getCommandOutputLines() );
+        jobBuilder.predictorPool( predictorPool );
+        jobBuilder.resultStore( resultStore );
+
+        // Inputs stay wherever they were spooled when the job was first submitted
+        jobBuilder.jobDirectory( record.getJobDirectory() );
+        jobBuilder.inputPDBFullPath( record.getInputPDBFullPath() );
+        jobBuilder.inputProteinChainFullPath( record.getInputProteinChainFullPath() );
+        jobBuilder.outputScoredPDBFullPath( record.getOutputScoredPDBFullPath() );
+        jobBuilder.outputCSVFullPath( record.getOutputCSVFullPath() );
+
+        jobBuilder.userId( record.getUserId() );
+        jobBuilder.label( record.getLabel() );
+        jobBuilder.cacheKey( record.getCacheKey() );
+        jobBuilder.residueCount( record.getResidueCount() );
+        jobBuilder.batchId( record.getBatchId() );
+        jobBuilder.hidden( record.isHidden() );
+        jobBuilder.email( record.getEmail() );
+        jobBuilder.submittedDate( record.getSubmittedDate() );
+
+        if ( record.isComplete() ) {
+            IDRBindJobResult result = record.getResultPDBFile() != null ?
+                    new IDRBindJobResult( Paths.get( record.getResultPDBFile() ), Paths.get( record.getResultCSVFile() ) ) :
+                    IDRBindJobResult.EMPTY;
+            jobBuilder.complete( true );
+            jobBuilder.failed( record.isFailed() );
+            jobBuilder.status( record.getStatus() );
+            jobBuilder.executionTime( record.getExecutionTime() );
+            jobBuilder.exitCode( record.getExitCode() );
+            jobBuilder.result( result );
+            jobBuilder.future( CompletableFuture.completedFuture( result ) );
+            jobBuilder.saveExpiredDate( record.getSaveExpiredDate() != null ? record.getSaveExpiredDate() :
+                    System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
+        }
+
+        return jobBuilder.build();
+    }
+
+    private void journal( JobJournal.Event event, IDRBindJob job ) {
+        if ( !shuttingDown ) {
+            jobJournal.record( event, job );
+        }
     }
 
     public IDRBindJob createJob( String userId,
@@ -68,126 +391,572 @@ public class JobManager {
                                  String inputProteinChainIds,
                                  String email,
                                  boolean hidden ) {
+        try {
+            return createJob( userId, label, new ByteArrayInputStream( inputPDBContent.getBytes( StandardCharsets.UTF_8 ) ),
+                    inputProteinChainIds, email, hidden );
+        } catch ( IOException e ) {
+            log.error( e );
+            IDRBindJob job = jobBuilder( userId, label, email, hidden ).build();
+            job.setComplete( true );
+            job.setFailed( true );
+            job.setStatus( e instanceof InputTooLargeException ? "Rejected: " + e.getMessage() : "Failed" );
+            return job;
+        }
+    }
+
+    // Streams the structure straight into the new job's input file, never holding it in memory, and
+    // parses it on the way so bad inputs are turned away before they are queued.
+    // Stops with InputTooLargeException as soon as max-input-bytes is crossed, leaving nothing behind.
+    public IDRBindJob createJob( String userId,
+                                 String label,
+                                 InputStream inputPDB,
+                                 String inputProteinChainIds,
+                                 String email,
+                                 boolean hidden ) throws IOException {
+        IDRBindJob job = jobBuilder( userId, label, email, hidden ).build();
+
+        long limit = applicationSettings.getMaxInputBytes();
+        ResultCache.KeyDigest digest = new ResultCache.KeyDigest();
+        PdbParser parser;
+        try {
+            Files.createDirectories( Paths.get( job.getJobDirectory() ) );
+            try ( OutputStream file = new BufferedOutputStream( Files.newOutputStream( Paths.get( job.getInputPDBFullPath() ) ) ) ) {
+                // What is written, possibly trimmed to the requested chains, is also what the cache key covers
+                OutputStream out = new OutputStream() {
+                    @Override
+                    public void write( int b ) throws IOException {
+                        write( new byte[]{(byte) b}, 0, 1 );
+                    }
+
+                    @Override
+                    public void write( byte[] b, int off, int len ) throws IOException {
+                        digest.update( b, off, len );
+                        file.write( b, off, len );
+                    }
+                };
+                parser = new PdbParser( inputProteinChainIds, applicationSettings.isTrimToRequestedChains(), out );
+
+                byte[] buffer = new byte[64 * 1024];
+                long total = 0;
+                int n;
+                while ( ( n = inputPDB.read( buffer ) ) != -1 ) {
+                    total += n;
+                    if ( total > limit ) {
+                        throw new InputTooLargeException( limit );
+                    }
+                    parser.update( buffer, 0, n );
+                    if ( applicationSettings.isValidateInputs() && parser.getError() != null ) {
+                        // No point reading the rest
+                        break;
+                    }
+                }
+                parser.finish();
+            }
+            job.writeChains( inputProteinChainIds );
+        } catch ( IOException e ) {
+            discard( job );
+            throw e;
+        }
+
+        job.setCacheKey( digest.finish( inputProteinChainIds ) );
+        job.setResidueCount( parser.getResidueCount() );
+
+        if ( !validateJob( job, parser ) ) {
+            log.info( "Rejecting job (" + job.getJobId() + ") for user: (" + job.getUserId() + "): " + parser.getError() );
+            discard( job );
+            job.setComplete( true );
+            job.setFailed( true );
+            job.setStatus( "Rejected: " + parser.getError() );
+            countOutcome( "rejected" );
+        }
+        return job;
+    }
+
+    // Removes the spooled inputs of a job that was created but will not be submitted
+    public void discard( IDRBindJob job ) {
+        FileSystemUtils.deleteRecursively( new File( job.getJobDirectory() ) );
+    }
+
+    private IDRBindJob.IDRBindJobBuilder jobBuilder( String userId,
+                                                     String label,
+                                                     String email,
+                                                     boolean hidden ) {
         IDRBindJob.IDRBindJobBuilder jobBuilder = IDRBindJob.builder();
 
+        // Generated
+        String jobId = UUID.randomUUID().toString();
+        jobBuilder.jobId( jobId );
+
         // Static Resources
         jobBuilder.command( applicationSettings.getCommand() );
         jobBuilder.commandWorkingDirectory( applicationSettings.getCommandWorkingDirectory() );
-        jobBuilder.inputPDBFullPath( applicationSettings.getInputPDBPath() );
-        jobBuilder.inputProteinChainFullPath( applicationSettings.getInputChainPath() );
-        jobBuilder.outputScoredPDBFullPath( applicationSettings.getOutputScoredPDBPath() );
-        jobBuilder.outputCSVFullPath( applicationSettings.getOutputCSVPath() );
+        jobBuilder.commandTimeoutMillis( applicationSettings.getCommandTimeoutMinutes() * 60L * 1000L );
+        jobBuilder.commandOutputLines( applicationSettings.getCommandOutputLines() );
+        jobBuilder.predictorPool( predictorPool );
+        jobBuilder.resultStore( resultStore );
 
-        // Generated
-        jobBuilder.jobId( UUID.randomUUID().toString() );
+        // Relative input/output paths are resolved inside a scratch directory unique to this job
+        Path jobDirectory = Paths.get( applicationSettings.getJobsDirectory(), jobId );
+        jobBuilder.jobDirectory( jobDirectory.toString() );
+        jobBuilder.inputPDBFullPath( jobDirectory.resolve( applicationSettings.getInputPDBPath() ).toString() );
+        jobBuilder.inputProteinChainFullPath( jobDirectory.resolve( applicationSettings.getInputChainPath() ).toString() );
+        jobBuilder.outputScoredPDBFullPath( jobDirectory.resolve( applicationSettings.getOutputScoredPDBPath() ).toString() );
+        jobBuilder.outputCSVFullPath( jobDirectory.resolve( applicationSettings.getOutputCSVPath() ).toString() );
 
         // User Inputs
         jobBuilder.userId( userId );
         jobBuilder.label( label );
-        jobBuilder.inputPDBContent( inputPDBContent );
-        jobBuilder.inputProteinChainIds( inputProteinChainIds );
         jobBuilder.hidden( hidden );
         jobBuilder.email( email );
 
-        IDRBindJob job = jobBuilder.build();
+        return jobBuilder;
+    }
 
-        boolean validation = validateJob( job );
+    private boolean submitToProcessQueue( IDRBindJob job ) {
+        log.info( "Submitting job (" + job.getJobId() + ") for user: (" + job.getUserId() + ") to process queue" );
+        job.setJobManager( this );
+        boolean fast = jobLeases == null && useFastLane( job );
+        // Indexed before handing over so a worker picking it up straight away finds it there
+        processQueue.add( job, fast );
+        if ( job.isCancelled() ) {
+            // Cancelled between leaving its user queue and getting here
+            processQueue.remove( job );
+            return true;
+        }
+        boolean accepted = true;
+        if ( jobLeases != null ) {
+            accepted = jobLeases.offer( job );
+        } else {
+            try {
+                job.setFuture( ( fast ? fastLane : executor ).submit( job ) );
+            } catch ( RejectedExecutionException e ) {
+                accepted = false;
+            }
+        }
+        if ( !accepted ) {
+            log.info( "Process queue full, job (" + job.getJobId() + ") stays in user queue" );
+            processQueue.remove( job );
+        }
+        jobChanged( job );
+        return accepted;
+    }
 
-        if ( !validation ) {
-            job.setComplete( true );
-            job.setFailed( true );
-            job.setStatus( "Failed" );
+    // Adds jobs to their user queues, taking each user queue's lock and the dispatch lock once for all of them
+    private void submitToUserQueues( List<IDRBindJob> submitted ) {
+        Map<String, List<IDRBindJob>> byUser = new LinkedHashMap<>();
+        for ( IDRBindJob job : submitted ) {
+            byUser.computeIfAbsent( job.getUserId(), k -> new ArrayList<>() ).add( job );
         }
 
-        return job;
+        List<IDRBindJob> enqueued = new ArrayList<>( submitted.size() );
+        for ( Map.Entry<String, List<IDRBindJob>> entry : byUser.entrySet() ) {
+            log.info( "Submitting " + entry.getValue().size() + " job(s) for user: (" + entry.getKey() + ") to user queue" );
+
+            Deque<IDRBindJob> jobs = userQueues.computeIfAbsent( entry.getKey(), k -> new LinkedList<>() );
+
+            synchronized ( jobs ) {
+                for ( IDRBindJob job : entry.getValue() ) {
+                    if ( jobs.size() > applicationSettings.getUserJobLimit() ) {
+                        log.info( "Too many jobs (" + job.getJobId() + ") for user: (" + job.getUserId() + ")");
+                        reject( job, "Too many jobs queued for this user" );
+                        continue;
+                    }
+
+                    if ( waitingJobCount() >= applicationSettings.getMaxQueuedJobs() ) {
+                        log.info( "Server queue full, rejecting job (" + job.getJobId() + ") for user: (" + job.getUserId() + ")");
+                        reject( job, "Server queue is full, try again later" );
+                        continue;
+                    }
+
+                    if ( !jobs.contains( job ) ) {
+                        jobs.add( job );
+                        userQueuedJobs.incrementAndGet();
+                        job.setSequence( submissionSequence.incrementAndGet() );
+                        job.setStatus( "Pending" );
+                        saveJob( job );
+                        journal( JobJournal.Event.SUBMIT, job );
+                        enqueued.add( job );
+                    }
+                }
+            }
+        }
+
+        if ( enqueued.isEmpty() ) {
+            return;
+        }
+
+        synchronized ( dispatchLock ) {
+            for ( IDRBindJob job : enqueued ) {
+                schedulingPolicy.enqueued( job.getUserId() );
+            }
+        }
+        dispatch();
+    }
+
+    private void reject( IDRBindJob job, String reason ) {
+        job.setComplete( true );
+        job.setFailed( true );
+        job.setStatus( "Rejected: " + reason );
+        countOutcome( "rejected" );
+    }
 
+    private int waitingJobCount() {
+        return processQueue.waitingCount() + userQueuedJobs.get();
     }
 
-    private void submitToProcessQueue( IDRBindJob job ) {
-        synchronized ( jobQueueMirror ) {
-            log.info( "Submitting job (" + job.getJobId() + ") for user: (" + job.getUserId() + ") to process queue" );
-            job.setJobManager( this );
-            Future<IDRBindJobResult> future = executor.submit( job );
-            job.setFuture( future );
-            jobQueueMirror.add( job );
-            job.setStatus( "Position: " + Integer.toString( jobQueueMirror.size() ) );
-            job.setPosition( jobQueueMirror.size() );
+    // Hands jobs from the user queues to the executor while it has room, in the order the scheduling policy picks.
+    // With only the fast lane left with room, only users with a small job next in line are considered.
+    private void dispatch() {
+        synchronized ( dispatchLock ) {
+            while ( jobLeases != null ? jobLeases.hasCapacity() : hasRoom( executor ) || hasRoom( fastLane ) ) {
+                boolean generalRoom = jobLeases != null || hasRoom( executor );
+                String userId = schedulingPolicy.nextUser( this::peekUserQueue,
+                        u -> processQueue.count( u ) < applicationSettings.getUserProcessLimit()
+                                && ( generalRoom || isSmall( peekUserQueue( u ) ) ) );
+                if ( userId == null ) {
+                    return;
+                }
+
+                Deque<IDRBindJob> jobs = userQueues.get( userId );
+                IDRBindJob job;
+                synchronized ( jobs ) {
+                    job = jobs.poll();
+                }
+                if ( job == null ) {
+                    continue;
+                }
+                userQueuedJobs.decrementAndGet();
+                schedulingPolicy.dispatched( userId, job );
+
+                job.setSubmittedDate( new Date() );
+                if ( !submitToProcessQueue( job ) ) {
+                    // Executor backlog is full, keep our place at the head of the line
+                    synchronized ( jobs ) {
+                        jobs.addFirst( job );
+                    }
+                    userQueuedJobs.incrementAndGet();
+                    return;
+                }
+            }
         }
     }
 
-    private void submitToUserQueue( IDRBindJob job ) {
-        log.info( "Submitting job (" + job.getJobId() + ") for user: (" + job.getUserId() + ") to user queue" );
+    private static boolean hasRoom( ThreadPoolExecutor lane ) {
+        return lane != null && lane.getQueue().remainingCapacity() > 0;
+    }
 
-        Queue<IDRBindJob> jobs = userQueues.computeIfAbsent( job.getUserId(), k -> new LinkedList<>() );
+    private boolean isSmall( IDRBindJob job ) {
+        return job != null && job.getResidueCount() > 0 && job.getResidueCount() <= applicationSettings.getFastLaneMaxResidues();
+    }
 
-        if ( jobs.size() > applicationSettings.getUserJobLimit() ) {
-            log.info( "Too many jobs (" + job.getJobId() + ") for user: (" + job.getUserId() + ")");
-            return;
+    // Small jobs go to the fast lane unless a general worker is free right now
+    private boolean useFastLane( IDRBindJob job ) {
+        if ( fastLane == null || !isSmall( job ) ) {
+            return false;
         }
+        boolean generalIdle = executor.getActiveCount() + executor.getQueue().size() < executor.getMaximumPoolSize();
+        return !generalIdle && hasRoom( fastLane );
+    }
 
+    private IDRBindJob peekUserQueue( String userId ) {
+        Deque<IDRBindJob> jobs = userQueues.get( userId );
+        if ( jobs == null ) {
+            return null;
+        }
         synchronized ( jobs ) {
+            return jobs.peek();
+        }
+    }
 
-            if ( !jobs.contains( job ) ) {
-                jobs.add( job );
-                job.setStatus( "Pending" );
-                saveJob( job );
-                submitJobFromUserQueue( job.getUserId() );
+    public void submit( IDRBindJob job ) {
+        submitAll( Collections.singletonList( job ) );
+    }
+
+    // Submits jobs in one go, those that can't be answered from cache or an identical job are queued together
+    public void submitAll( List<IDRBindJob> jobs ) {
+        if ( applicationSettings.getMode() == ApplicationSettings.Mode.WORKER ) {
+            // Workers only run what their coordinator leases them, jobs taken here would be neither journaled nor leased
+            for ( IDRBindJob job : jobs ) {
+                discard( job );
+                reject( job, "This server only runs jobs for its coordinator, submit to the coordinator instead" );
+            }
+            return;
+        }
+
+        List<IDRBindJob> queued = new ArrayList<>( jobs.size() );
+        for ( IDRBindJob job : jobs ) {
+            if ( prepare( job ) ) {
+                queued.add( job );
+            }
+        }
+
+        submitToUserQueues( queued );
+
+        for ( IDRBindJob job : queued ) {
+            if ( job.isFailed() ) {
+                abandon( job );
             }
         }
     }
 
-    private void submitJobFromUserQueue( String userId ) {
-        int cnt = 0;
-        synchronized ( jobQueueMirror ) {
+    // Creates a batch of jobs for one user and submits them together
+    public JobBatch submitBatch( String userId, List<IDRBindJob> jobs ) {
+        String batchId = UUID.randomUUID().toString();
+        for ( IDRBindJob job : jobs ) {
+            job.setBatchId( batchId );
+        }
+
+        JobBatch batch = new JobBatch( batchId, userId, new Date(), jobs );
+        batches.put( batchId, batch );
+        log.info( "Submitting batch (" + batchId + ") of " + jobs.size() + " jobs for user: (" + userId + ")" );
+        submitAll( jobs );
+        releaseUnsaved( batch );
+        return batch;
+    }
 
-            for ( IDRBindJob job : jobQueueMirror ) {
-                if ( job.getUserId().equals( userId ) ) cnt++;
+    // Jobs rejected outright are never saved and so never purged, don't wait on them to drop the batch
+    private void releaseUnsaved( JobBatch batch ) {
+        for ( IDRBindJob job : batch.getJobs() ) {
+            if ( !job.isSaved() && batch.purged( job ) ) {
+                batches.remove( batch.getBatchId() );
             }
         }
+    }
 
-        if ( cnt < applicationSettings.getUserProcessLimit() ) {
+    // Jobs the user may still add to their queue before further ones are rejected
+    public int userQueueRoom( String userId ) {
+        Deque<IDRBindJob> jobs = userQueues.get( userId );
+        if ( jobs == null ) {
+            return applicationSettings.getUserJobLimit();
+        }
+        synchronized ( jobs ) {
+            return Math.max( 0, applicationSettings.getUserJobLimit() - jobs.size() );
+        }
+    }
 
-            Queue<IDRBindJob> jobs = userQueues.get( userId );
+    public JobBatch getBatch( String batchId ) {
+        return batches.get( batchId );
+    }
 
-            if ( jobs != null ) {
-                IDRBindJob job;
-                synchronized ( jobs ) {
-                    job = jobs.poll();
-                }
-                if ( job != null ) {
-                    job.setSubmittedDate( new Date() );
-                    submitToProcessQueue( job );
-                }
+    // Answers a job from cache or attaches it to an identical one if possible, otherwise spools its inputs.
+    // True if the job still has to be queued.
+    private boolean prepare( IDRBindJob job ) {
+        if ( job.isFailed() ) {
+            discard( job );
+            return false;
+        }
+
+        IDRBindJobResult cached = resultCache.get( job.getCacheKey(), source -> resultStore.link( job.getJobId(), source ) );
+        if ( cached != null ) {
+            log.info( "Completing job (" + job.getJobId() + ") for user: (" + job.getUserId() + ") from cache" );
+            discard( job );
+            job.setSubmittedDate( new Date() );
+            job.setComplete( true );
+            job.setStatus( "Completed (cached result)" );
+            countOutcome( "cached" );
+            job.setResult( cached );
+            job.setFuture( CompletableFuture.completedFuture( cached ) );
+            job.setSaveExpiredDate( System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
+            saveJob( job );
+            journal( JobJournal.Event.COMPLETE, job );
+            sendCompletionMessage( job );
+            return false;
+        }
+
+        List<IDRBindJob> identicalJobs = inFlightJobs.compute( job.getCacheKey(), ( k, jobs ) -> {
+            if ( jobs == null ) {
+                jobs = new ArrayList<>();
             }
+            jobs.add( job );
+            return jobs;
+        } );
+
+        if ( identicalJobs.get( 0 ) != job ) {
+            log.info( "Attaching job (" + job.getJobId() + ") for user: (" + job.getUserId() + ") to identical job ("
+                    + identicalJobs.get( 0 ).getJobId() + ")" );
+            job.setSubmittedDate( new Date() );
+            job.setStatus( "Waiting on identical job" );
+            saveJob( job );
+            journal( JobJournal.Event.SUBMIT, job );
+            return false;
         }
 
+        try {
+            job.checkInputs();
+        } catch ( IOException e ) {
+            log.error( e );
+            job.setComplete( true );
+            job.setFailed( true );
+            job.setStatus( "Failed" );
+            abandon( job );
+            return false;
+        }
+
+        return true;
     }
 
-    private void updatePositions( String userId ) {
-        synchronized ( jobQueueMirror ) {
-            int idx = 1;
+    // Rejected, anything that attached in the meantime shares that fate
+    private void abandon( IDRBindJob job ) {
+        discard( job );
+        completeIdenticalJobs( job, null );
+    }
+
+    private void completeIdenticalJobs( IDRBindJob job, IDRBindJobResult result ) {
+        List<IDRBindJob> identicalJobs = inFlightJobs.remove( job.getCacheKey() );
+        if ( identicalJobs == null ) {
+            return;
+        }
+
+        for ( IDRBindJob identical : identicalJobs ) {
+            if ( identical == job || !identical.settle() ) continue;
+            discard( identical );
+            IDRBindJobResult identicalResult = job.isFailed() ? null : resultStore.link( identical.getJobId(), result );
+            identical.setExecutionTime( job.getExecutionTime() );
+            identical.setExitCode( job.getExitCode() );
+            identical.setFailed( identicalResult == null );
+            identical.setStatus( identicalResult == null ? "Failed" : job.getStatus() );
+            countOutcome( identicalResult == null ? "failed" : "identical" );
+            identical.setResult( identicalResult == null ? IDRBindJobResult.EMPTY : identicalResult );
+            identical.setFuture( CompletableFuture.completedFuture( identical.getResult() ) );
+            identical.setSaveExpiredDate( System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
+            jobChanged( identical );
+            journal( identical.isFailed() ? JobJournal.Event.FAIL : JobJournal.Event.COMPLETE, identical );
+            sendCompletionMessage( identical );
+        }
+    }
 
-            for ( Iterator<IDRBindJob> iterator = jobQueueMirror.iterator(); iterator.hasNext(); ) {
-                IDRBindJob job = iterator.next();
+    // Ends a job wherever it is: taken out of its user queue or the line to the workers, detached from the
+    // identical job it waits on, or its predictor killed. False if it had already completed.
+    public boolean cancel( IDRBindJob job ) {
+        if ( !job.cancel() ) {
+            return false;
+        }
+        log.info( "Cancelling job (" + job.getJobId() + ") for user: (" + job.getUserId() + ")" );
+
+        Deque<IDRBindJob> jobs = userQueues.get( job.getUserId() );
+        boolean queued = false;
+        if ( jobs != null ) {
+            synchronized ( jobs ) {
+                queued = jobs.remove( job );
+            }
+        }
+        if ( queued ) {
+            userQueuedJobs.decrementAndGet();
+        } else if ( jobLeases != null ) {
+            jobLeases.remove( job );
+        } else if ( job.getFuture() != null ) {
+            // Never runs if still waiting, otherwise the interrupt kills its predictor
+            job.getFuture().cancel( true );
+            if ( job.getFuture() instanceof Runnable ) {
+                // Frees its place in the executor's backlog
+                ( job.isFastLane() ? fastLane : executor ).remove( (Runnable) job.getFuture() );
+            }
+        }
+        processQueue.remove( job );
+        handOverIdentical( job );
+        discard( job );
+
+        countOutcome( "cancelled" );
+        job.setSaveExpiredDate( System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
+        jobChanged( job );
+        journal( JobJournal.Event.FAIL, job );
 
-                if ( job.isRunning() ) {
-                    job.setStatus( "Processing" );
-                    idx++;
-                } else if ( job.isComplete() ) {
-                    job.setStatus( "Completed in " + job.getExecutionTime() + "s" );
-                    job.setPosition( null );
-                    iterator.remove();
-                } else {
-                    job.setStatus( "Position: " + Integer.toString( idx ) );
-                    job.setPosition( idx );
-                    idx++;
+        updatePositions();
+        // A place in line or a worker is free
+        dispatch();
+        return true;
+    }
+
+    public int cancelBatch( JobBatch batch ) {
+        int cancelled = 0;
+        for ( IDRBindJob job : batch.getJobs() ) {
+            if ( cancel( job ) ) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    // Everything the user has waiting or running, found through the user queue, the process queue and
+    // the jobs waiting on identical ones rather than all saved jobs
+    public int cancelUserJobs( String userId ) {
+        List<IDRBindJob> active = new ArrayList<>();
+        Deque<IDRBindJob> jobs = userQueues.get( userId );
+        if ( jobs != null ) {
+            synchronized ( jobs ) {
+                active.addAll( jobs );
+            }
+        }
+        if ( processQueue.count( userId ) > 0 ) {
+            for ( IDRBindJob job : processQueue.jobs() ) {
+                if ( userId.equals( job.getUserId() ) ) {
+                    active.add( job );
                 }
             }
         }
+        for ( String cacheKey : inFlightJobs.keySet() ) {
+            // Read under the map's lock, the lists are only ever changed inside compute
+            inFlightJobs.computeIfPresent( cacheKey, ( k, identicalJobs ) -> {
+                for ( IDRBindJob job : identicalJobs ) {
+                    if ( userId.equals( job.getUserId() ) ) {
+                        active.add( job );
+                    }
+                }
+                return identicalJobs;
+            } );
+        }
+
+        int cancelled = 0;
+        for ( IDRBindJob job : active ) {
+            if ( cancel( job ) ) {
+                cancelled++;
+            }
+        }
+        log.info( "Cancelled " + cancelled + " job(s) for user: (" + userId + ")" );
+        return cancelled;
     }
 
-    public void submit( IDRBindJob job ) {
-        submitToUserQueue( job );
+    // A cancelled job leaves the identical jobs waiting on it. If it was the one to run, the next of
+    // them is queued to run in its place.
+    private void handOverIdentical( IDRBindJob job ) {
+        if ( job.getCacheKey() == null ) {
+            return;
+        }
+        List<IDRBindJob> next = new ArrayList<>( 1 );
+        inFlightJobs.computeIfPresent( job.getCacheKey(), ( k, jobs ) -> {
+            boolean running = jobs.get( 0 ) == job;
+            if ( !jobs.remove( job ) ) {
+                return jobs;
+            }
+            if ( jobs.isEmpty() ) {
+                return null;
+            }
+            if ( running ) {
+                next.add( jobs.get( 0 ) );
+            }
+            return jobs;
+        } );
+
+        for ( IDRBindJob identical : next ) {
+            log.info( "Job (" + identical.getJobId() + ") takes over from cancelled identical job (" + job.getJobId() + ")" );
+            try {
+                identical.checkInputs();
+            } catch ( IOException e ) {
+                log.error( e );
+                if ( identical.settle() ) {
+                    identical.setFailed( true );
+                    identical.setStatus( "Failed" );
+                    jobChanged( identical );
+                    journal( JobJournal.Event.FAIL, identical );
+                }
+                abandon( identical );
+                continue;
+            }
+            submitToUserQueues( Collections.singletonList( identical ) );
+            if ( identical.isFailed() ) {
+                abandon( identical );
+            }
+        }
     }
 
     public IDRBindJob getSavedJob( String jobId ) {
@@ -200,54 +969,182 @@ public class JobManager {
     }
 
     private String saveJob( IDRBindJob job ) {
-        synchronized ( savedJobs ) {
-            job.setSaved( true );
-            savedJobs.put( job.getJobId(), job );
-            return job.getJobId();
+        boolean added = !job.isSaved();
+        job.setSaved( true );
+        savedJobs.put( job.getJobId(), job );
+        jobChanged( job );
+        if ( added ) {
+            purgeOldJobs.schedule( job );
+            if ( purgeOldJobs.isOverBudget() ) {
+                // Off the caller's thread, it may hold a user queue
+                scheduler.execute( purgeOldJobs::evictOverBudget );
+            }
         }
+        return job.getJobId();
     }
 
-    private boolean validateJob( IDRBindJob job ) {
-        return true;
+    private boolean validateJob( IDRBindJob job, PdbParser parser ) {
+        return !applicationSettings.isValidateInputs() || parser.getError() == null;
     }
 
     public void onJobStart( IDRBindJob job ) {
-        if ( applicationSettings.isEmailOnJobStart() && job.getEmail() != null && !job.getEmail().isEmpty() ) {
-            try {
-                emailService.sendJobStartMessage( job );
-            } catch ( MessagingException e ) {
-                log.error( e );
+        long now = System.currentTimeMillis();
+        waitTimer.record( now - job.getCreatedTime(), TimeUnit.MILLISECONDS );
+        if ( job.getSubmittedDate() != null ) {
+            processWaitTimer.record( now - job.getSubmittedDate().getTime(), TimeUnit.MILLISECONDS );
+        }
+        processQueue.start( job );
+        jobChanged( job );
+        updatePositions();
+        journal( JobJournal.Event.START, job );
+        if ( applicationSettings.isEmailOnJobStart() ) {
+            notificationQueue.jobStarted( job );
+        }
+    }
+
+    // Public view, event subscribers and ETags follow every state change
+    private void jobChanged( IDRBindJob job ) {
+        job.changed();
+        publicJobView.update( job );
+        jobEvents.jobChanged( job );
+    }
+
+    // Everyone still waiting moved up one
+    private void updatePositions() {
+        for ( IDRBindJob waiting : processQueue.jobs() ) {
+            if ( waiting.getQueueTicket() != null ) {
+                publicJobView.update( waiting );
             }
         }
+        jobEvents.positionsChanged( savedJobs );
     }
 
-    public void onJobComplete( IDRBindJob job ) {
+    private void sendCompletionMessage( IDRBindJob job ) {
+        notificationQueue.jobCompleted( job );
+    }
+
+    public void onJobComplete( IDRBindJob job, IDRBindJobResult result ) {
+        executionTimer.record( job.getExecutionTime(), TimeUnit.SECONDS );
+        countOutcome( job.isTimedOut() ? "timeout" : job.isFailed() ? "failed" : "completed" );
         job.setSaveExpiredDate( System.currentTimeMillis() + applicationSettings.getPurgeAfterHours() * 60 * 60 * 1000 );
-        updatePositions( job.getUserId() );
-        if ( job.getEmail() != null && !job.getEmail().isEmpty() ) {
-            try {
-                emailService.sendJobCompletionMessage( job );
-            } catch ( MessagingException e ) {
-                log.error( e );
+        processQueue.remove( job );
+        if ( !job.isFailed() ) {
+            job.setStatus( "Completed in " + job.getExecutionTime() + "s" );
+        }
+        jobChanged( job );
+        journal( job.isFailed() ? JobJournal.Event.FAIL : JobJournal.Event.COMPLETE, job );
+        if ( !job.isFailed() ) {
+            resultCache.put( job.getCacheKey(), result );
+        }
+        sendCompletionMessage( job );
+        completeIdenticalJobs( job, result );
+        // A worker is free, let the scheduling policy pick who goes next
+        dispatch();
+        log.info( String.format( "Jobs in queue: %d", processQueue.size() ) );
+    }
+
+    // Waits for a job to hand to a remote worker, null if none turned up in time
+    public JobLeases.Lease leaseJob( String workerId, long waitMillis ) throws InterruptedException {
+        JobLeases.Lease lease = jobLeases.take( workerId, waitMillis );
+        if ( lease == null ) {
+            return null;
+        }
+
+        IDRBindJob job = lease.getJob();
+        log.info( "Leased job (" + job.getJobId() + ") to worker (" + workerId + ")" );
+        if ( job.getQueueTicket() != null ) {
+            if ( !job.start() ) {
+                // Cancelled while waiting, the worker will ask again
+                jobLeases.release( lease.getLeaseId() );
+                dispatch();
+                return null;
             }
+        } else {
+            // Taken back from a worker that went quiet, it has already started once
+            job.setRunning( true );
+            job.setStatus( "Processing" );
+            jobChanged( job );
         }
-        // Add new job for given session
-        submitJobFromUserQueue( job.getUserId() );
-        log.info( String.format( "Jobs in queue: %d", jobQueueMirror.size() ) );
+        // Room in the line again
+        dispatch();
+        return lease;
     }
 
-    public List<IDRBindJob.IDRBindJobVO> listPublicJobs() {
-        return Stream.concat(jobQueueMirror.stream(), savedJobs.values().stream())
-                .distinct()
-                .filter( j -> !j.isHidden() )
-                .map( j -> j.toValueObject( true ) )
-                .sorted(
-                        Comparator.comparing(IDRBindJob.IDRBindJobVO::getPosition, Comparator.nullsLast(Integer::compareTo))
-                                .thenComparing(IDRBindJob.IDRBindJobVO::getSubmitted, Comparator.nullsLast(Date::compareTo).reversed())
-                                .thenComparing(IDRBindJob.IDRBindJobVO::getStatus, String::compareToIgnoreCase)
-                )
-                .collect( Collectors.toList() );
+    public JobLeases.Lease heartbeat( String leaseId ) {
+        return jobLeases == null ? null : jobLeases.heartbeat( leaseId );
     }
 
+    public JobLeases.Lease getLease( String leaseId ) {
+        return jobLeases == null ? null : jobLeases.get( leaseId );
+    }
+
+    // Outputs uploaded by the worker holding the lease, false if the lease was lost in the meantime
+    public boolean completeLease( String leaseId, Path scoredPDB, Path csv, long executionTime, Integer exitCode ) {
+        JobLeases.Lease lease = jobLeases == null ? null : jobLeases.release( leaseId );
+        if ( lease == null ) {
+            return false;
+        }
+
+        IDRBindJob job = lease.getJob();
+        job.setExecutionTime( executionTime );
+        job.setExitCode( exitCode );
+        // Stands in for the executor's future, readers of a just completed job wait on it briefly
+        CompletableFuture<IDRBindJobResult> future = new CompletableFuture<>();
+        job.setFuture( future );
+        try {
+            future.complete( job.finish( scoredPDB, csv ) );
+        } catch ( IOException e ) {
+            log.error( e );
+            future.complete( job.fail() );
+        } finally {
+            discard( job );
+        }
+        return true;
+    }
+
+    public boolean failLease( String leaseId, long executionTime, Integer exitCode, boolean timedOut, String message ) {
+        JobLeases.Lease lease = jobLeases == null ? null : jobLeases.release( leaseId );
+        if ( lease == null ) {
+            return false;
+        }
+
+        IDRBindJob job = lease.getJob();
+        log.error( "Job (" + job.getJobId() + ") failed on worker (" + lease.getWorkerId() + "): " + message );
+        job.setExecutionTime( executionTime );
+        job.setExitCode( exitCode );
+        job.setTimedOut( timedOut );
+        job.setFuture( CompletableFuture.completedFuture( job.fail() ) );
+        discard( job );
+        return true;
+    }
+
+    // Jobs of workers that stopped sending heartbeats go to the next worker that asks
+    private void expireLeases() {
+        for ( JobLeases.Lease lease : jobLeases.expire( applicationSettings.getLeaseTimeoutSeconds() * 1000L ) ) {
+            IDRBindJob job = lease.getJob();
+            if ( job.isComplete() ) continue;
+
+            log.warn( "Lease of job (" + job.getJobId() + ") to worker (" + lease.getWorkerId() + ") expired, requeueing" );
+            meterRegistry.counter( "idrbind.leases.expired" ).increment();
+            job.setRunning( false );
+            job.setStatus( "Waiting for a worker" );
+            jobChanged( job );
+            jobLeases.requeue( job );
+        }
+    }
+
+    private void onJobPurged( IDRBindJob job ) {
+        resultCache.remove( job.getCacheKey(), job.getResult() );
+        resultStore.delete( job.getJobId() );
+        if ( job.getBatchId() != null ) {
+            batches.computeIfPresent( job.getBatchId(), ( k, batch ) -> batch.purged( job ) ? null : batch );
+        }
+        publicJobView.remove( job );
+        journal( JobJournal.Event.PURGE, job );
+    }
+
+    public List<IDRBindJob.IDRBindJobVO> listPublicJobs() {
+        return publicJobView.snapshot();
+    }
 
 }
@@ -0,0 +1,266 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Job notification emails are queued here and sent by dedicated threads so a slow or unreachable
+// mail server never holds up a job worker. Each sender drains a batch from the queue and sends it
+// over one connection, failures are retried with exponential backoff.
+//
+// Notifications are built when sent rather than when queued, and:
+// - a start notification is dropped if its job has completed by then, the completion one covers it
+// - a notification identical to one still waiting in the queue is coalesced into it
+// - when the queue is full new notifications are dropped
+@Log4j2
+@Service
+public class NotificationQueue {
+
+    public enum Type {
+        JOB_START, JOB_COMPLETE
+    }
+
+    @Autowired
+    ApplicationSettings applicationSettings;
+
+    @Autowired
+    EmailService emailService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private BlockingQueue<Notification> queue;
+
+    // Keys of notifications waiting in the queue, for coalescing
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService senders;
+    private ScheduledExecutorService retries;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Time from a notification being queued until it is handed to the mail server, retries included
+    private Timer latency;
+
+    @PostConstruct
+    private void initialize() {
+        queue = new LinkedBlockingQueue<>( Math.max( 1, applicationSettings.getEmailQueueCapacity() ) );
+        int threads = Math.max( 1, applicationSettings.getEmailSenderThreads() );
+        senders = Executors.newFixedThreadPool( threads );
+        for ( int i = 0; i < threads; i++ ) {
+            senders.submit( this::sendLoop );
+        }
+        retries = Executors.newSingleThreadScheduledExecutor();
+
+        Gauge.builder( "idrbind.email.queue", this, NotificationQueue::size )
+                .description( "Notifications waiting to be sent" ).register( meterRegistry );
+        for ( String outcome : new String[]{"sent", "skipped", "dropped", "failed"} ) {
+            FunctionCounter.builder( "idrbind.email.notifications", this, q -> q.count( outcome ) )
+                    .tag( "outcome", outcome ).register( meterRegistry );
+        }
+        latency = Timer.builder( "idrbind.email.latency" ).description( "Time from queueing to sending a notification" )
+                .publishPercentileHistogram().register( meterRegistry );
+    }
+
+    @PreDestroy
+    public void destroy() {
+        senders.shutdownNow();
+        retries.shutdownNow();
+        if ( !queue.isEmpty() ) {
+            log.warn( "Discarding " + queue.size() + " unsent notifications" );
+        }
+    }
+
+    public void jobStarted( IDRBindJob job ) {
+        offer( new Notification( Type.JOB_START, job, 0, System.nanoTime() ) );
+    }
+
+    public void jobCompleted( IDRBindJob job ) {
+        offer( new Notification( Type.JOB_COMPLETE, job, 0, System.nanoTime() ) );
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    private double count( String outcome ) {
+        switch ( outcome ) {
+            case "sent":
+                return sent.get();
+            case "skipped":
+                return skipped.get();
+            case "dropped":
+                return dropped.get();
+            default:
+                return failed.get();
+        }
+    }
+
+    private void offer( Notification notification ) {
+        if ( notification.job.getEmail() == null || notification.job.getEmail().isEmpty() ) {
+            return;
+        }
+
+        if ( !pending.add( notification.key() ) ) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        if ( !queue.offer( notification ) ) {
+            pending.remove( notification.key() );
+            dropped.incrementAndGet();
+            log.warn( "Notification queue full, dropping " + notification.type + " for job (" + notification.job.getJobId() + ")" );
+        }
+    }
+
+    private void sendLoop() {
+        List<Notification> batch = new ArrayList<>();
+        while ( !Thread.currentThread().isInterrupted() ) {
+            try {
+                batch.add( queue.take() );
+                queue.drainTo( batch, Math.max( 1, applicationSettings.getEmailBatchSize() ) - 1 );
+                send( batch );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            } catch ( RuntimeException e ) {
+                log.error( "Unexpected error sending notifications", e );
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send( List<Notification> batch ) {
+        List<Notification> notifications = new ArrayList<>();
+        List<MimeMessage> messages = new ArrayList<>();
+
+        for ( Notification notification : batch ) {
+            // From here on an identical notification is a new one
+            pending.remove( notification.key() );
+
+            if ( notification.type == Type.JOB_START && notification.job.isComplete() ) {
+                skipped.incrementAndGet();
+                continue;
+            }
+
+            try {
+                MimeMessage message = notification.type == Type.JOB_START ?
+                        emailService.createJobStartMessage( notification.job ) :
+                        emailService.createJobCompletionMessage( notification.job );
+                if ( message != null ) {
+                    notifications.add( notification );
+                    messages.add( message );
+                }
+            } catch ( MessagingException e ) {
+                failed.incrementAndGet();
+                log.error( "Could not create " + notification.type + " for job (" + notification.job.getJobId() + ")", e );
+            }
+        }
+
+        if ( messages.isEmpty() ) {
+            return;
+        }
+
+        try {
+            emailService.send( messages.toArray( new MimeMessage[0] ) );
+            sent.addAndGet( messages.size() );
+            notifications.forEach( this::recordLatency );
+        } catch ( MailSendException e ) {
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            for ( int i = 0; i < messages.size(); i++ ) {
+                if ( failedMessages.isEmpty() || failedMessages.containsKey( messages.get( i ) ) ) {
+                    retry( notifications.get( i ), e );
+                } else {
+                    sent.incrementAndGet();
+                    recordLatency( notifications.get( i ) );
+                }
+            }
+        } catch ( MailException e ) {
+            for ( Notification notification : notifications ) {
+                retry( notification, e );
+            }
+        }
+    }
+
+    private void recordLatency( Notification notification ) {
+        latency.record( System.nanoTime() - notification.queuedNanos, TimeUnit.NANOSECONDS );
+    }
+
+    private void retry( Notification notification, Exception cause ) {
+        int attempts = notification.attempts + 1;
+        if ( attempts >= applicationSettings.getEmailMaxAttempts() ) {
+            failed.incrementAndGet();
+            log.error( "Giving up on " + notification.type + " for job (" + notification.job.getJobId() + ") after "
+                    + attempts + " attempts", cause );
+            return;
+        }
+
+        long delay = applicationSettings.getEmailRetryBackoffSeconds() * ( 1L << Math.min( attempts - 1, 10 ) );
+        log.warn( "Failed to send " + notification.type + " for job (" + notification.job.getJobId() + "), retrying in "
+                + delay + "s: " + cause.getMessage() );
+        try {
+            retries.schedule( () -> offer( new Notification( notification.type, notification.job, attempts, notification.queuedNanos ) ),
+                    delay, TimeUnit.SECONDS );
+        } catch ( RejectedExecutionException e ) {
+            // Shutting down
+            failed.incrementAndGet();
+        }
+    }
+
+    private static final class Notification {
+        private final Type type;
+        private final IDRBindJob job;
+        private final int attempts;
+        private final long queuedNanos;
+
+        Notification( Type type, IDRBindJob job, int attempts, long queuedNanos ) {
+            this.type = type;
+            this.job = job;
+            this.attempts = attempts;
+            this.queuedNanos = queuedNanos;
+        }
+
+        String key() {
+            return type + ":" + job.getJobId();
+        }
+    }
+
+}
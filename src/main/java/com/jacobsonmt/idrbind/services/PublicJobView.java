@@ -0,0 +1,264 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Sorted value objects of all public jobs, kept up to date by JobManager as jobs change state
+// instead of being rebuilt from every saved job on each request. Readers of the full list get an
+// immutable snapshot that is only copied again after something changed.
+//
+// Every job is indexed in the default order, by label and by submission date, once among all jobs and
+// once among jobs in its state, next to a count of the jobs and of the jobs submitted each day. A page
+// with no label filter, and no date filter unless it is ordered by date, is read off an index from the
+// previous page's last job onwards and counted from those counts. A label filter or a date filter on
+// another order collects and counts only the jobs in the matching range of an index.
+@Service
+public class PublicJobView {
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    public enum SortColumn {
+        DEFAULT, LABEL, SUBMITTED
+    }
+
+    // Sorts after every real job id, bounds a range of equal labels or dates from above
+    private static final String LAST_JOB_ID = "\uffff";
+
+    private static final Comparator<IDRBindJob.IDRBindJobVO> BY_LABEL =
+            Comparator.comparing( PublicJobView::labelKey ).thenComparing( IDRBindJob.IDRBindJobVO::getJobId );
+
+    private static final Comparator<IDRBindJob.IDRBindJobVO> BY_SUBMITTED =
+            Comparator.comparing( IDRBindJob.IDRBindJobVO::getSubmitted, Comparator.nullsLast( Comparator.<Date>reverseOrder() ) )
+                    .thenComparing( IDRBindJob.IDRBindJobVO::getJobId );
+
+    public static final Comparator<IDRBindJob.IDRBindJobVO> ORDER =
+            Comparator.comparing( IDRBindJob.IDRBindJobVO::getPosition, Comparator.nullsLast( Integer::compareTo ) )
+                    .thenComparing( IDRBindJob.IDRBindJobVO::getSubmitted, Comparator.nullsLast( Date::compareTo ).reversed() )
+                    .thenComparing( IDRBindJob.IDRBindJobVO::getStatus, Comparator.nullsLast( String::compareToIgnoreCase ) )
+                    .thenComparing( IDRBindJob.IDRBindJobVO::getJobId );
+
+    private final Map<String, IDRBindJob.IDRBindJobVO> byJobId = new ConcurrentHashMap<>();
+    private final Indexes all = new Indexes();
+    private final Map<State, Indexes> byState = new EnumMap<>( State.class );
+
+    private volatile List<IDRBindJob.IDRBindJobVO> snapshot = Collections.emptyList();
+    private volatile boolean dirty = false;
+
+    public PublicJobView() {
+        for ( State state : State.values() ) {
+            byState.put( state, new Indexes() );
+        }
+    }
+
+    public void update( IDRBindJob job ) {
+        if ( job.isHidden() ) {
+            return;
+        }
+
+        IDRBindJob.IDRBindJobVO vo = job.toValueObject( true );
+        synchronized ( this ) {
+            IDRBindJob.IDRBindJobVO previous = byJobId.put( job.getJobId(), vo );
+            if ( previous != null ) {
+                all.remove( previous );
+                byState.get( state( previous ) ).remove( previous );
+            }
+            all.add( vo );
+            byState.get( state( vo ) ).add( vo );
+            dirty = true;
+        }
+    }
+
+    public void remove( IDRBindJob job ) {
+        synchronized ( this ) {
+            IDRBindJob.IDRBindJobVO previous = byJobId.remove( job.getJobId() );
+            if ( previous != null ) {
+                all.remove( previous );
+                byState.get( state( previous ) ).remove( previous );
+                dirty = true;
+            }
+        }
+    }
+
+    public List<IDRBindJob.IDRBindJobVO> snapshot() {
+        if ( dirty ) {
+            synchronized ( this ) {
+                if ( dirty ) {
+                    snapshot = Collections.unmodifiableList( new ArrayList<>( all.sorted ) );
+                    dirty = false;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    // One page of public jobs. Null filters match everything, both days are included. The page starts after
+    // the job with id after when that job is still public, otherwise after skipping start jobs.
+    public Page query( State state, String labelPrefix, LocalDate from, LocalDate to, SortColumn sort, boolean ascending,
+                       String after, int start, int length ) {
+        String prefix = labelPrefix == null || labelPrefix.trim().isEmpty() ? null : labelPrefix.trim().toLowerCase( Locale.ROOT );
+        boolean dateFilter = from != null || to != null;
+        Indexes indexes = state == null ? all : byState.get( state );
+        IDRBindJob.IDRBindJobVO cursor = after == null ? null : byJobId.get( after );
+        int limit = Math.max( 0, length );
+
+        // Label is naturally ascending, submission date and default order naturally descending
+        boolean reversed = sort != SortColumn.DEFAULT && ( sort == SortColumn.LABEL ) != ascending;
+
+        // Submission dates, newest first, jobs submitted exactly at the start of the day after to sort before
+        // the lower probe and at the start of from before the upper one
+        NavigableSet<IDRBindJob.IDRBindJobVO> dates = null;
+        if ( dateFilter ) {
+            Date newest = to == null ? new Date( Long.MAX_VALUE ) : startOfDay( to.plusDays( 1 ) );
+            Date oldest = from == null ? new Date( Long.MIN_VALUE ) : startOfDay( from );
+            dates = indexes.bySubmitted.subSet( probe( null, newest, LAST_JOB_ID ), false, probe( null, oldest, LAST_JOB_ID ), false );
+        }
+
+        if ( prefix == null && ( !dateFilter || sort == SortColumn.SUBMITTED ) ) {
+            NavigableSet<IDRBindJob.IDRBindJobVO> range = dateFilter ? dates : indexes.ordered( sort );
+            if ( reversed ) {
+                range = range.descendingSet();
+            }
+            Stream<IDRBindJob.IDRBindJobVO> rows = cursor != null
+                    ? range.tailSet( cursor, false ).stream()
+                    : range.stream().skip( Math.max( 0, start ) );
+            int filtered = dateFilter ? indexes.submittedBetween( from, to ) : indexes.count.get();
+            return new Page( all.count.get(), filtered, rows.limit( limit ).collect( Collectors.toList() ) );
+        }
+
+        // Only the jobs in the range are looked at
+        Stream<IDRBindJob.IDRBindJobVO> matches;
+        if ( prefix != null ) {
+            matches = indexes.byLabel.subSet( probe( prefix, null, "" ), true, probe( prefix + LAST_JOB_ID, null, "" ), false ).stream();
+            if ( dateFilter ) {
+                Predicate<IDRBindJob.IDRBindJobVO> submitted = vo -> vo.getSubmitted() != null
+                        && ( from == null || !vo.getSubmitted().before( startOfDay( from ) ) )
+                        && ( to == null || vo.getSubmitted().before( startOfDay( to.plusDays( 1 ) ) ) );
+                matches = matches.filter( submitted );
+            }
+        } else {
+            matches = dates.stream();
+        }
+        Comparator<IDRBindJob.IDRBindJobVO> order = sort == SortColumn.LABEL ? BY_LABEL : sort == SortColumn.SUBMITTED ? BY_SUBMITTED : ORDER;
+        if ( reversed ) {
+            order = order.reversed();
+        }
+        List<IDRBindJob.IDRBindJobVO> matching = matches.collect( Collectors.toList() );
+        if ( !( prefix != null && sort == SortColumn.LABEL && !reversed ) ) {
+            matching.sort( order );
+        }
+
+        int filtered = matching.size();
+        int from0 = Math.min( Math.max( 0, start ), filtered );
+        if ( cursor != null ) {
+            int found = Collections.binarySearch( matching, cursor, order );
+            from0 = found >= 0 ? found + 1 : -found - 1;
+        }
+        int to0 = Math.min( filtered, from0 + limit );
+        return new Page( all.count.get(), filtered, new ArrayList<>( matching.subList( from0, to0 ) ) );
+    }
+
+    public static State state( IDRBindJob.IDRBindJobVO vo ) {
+        if ( vo.isFailed() ) return State.FAILED;
+        if ( vo.isComplete() ) return State.COMPLETED;
+        if ( vo.isRunning() ) return State.RUNNING;
+        return State.QUEUED;
+    }
+
+    private static String labelKey( IDRBindJob.IDRBindJobVO vo ) {
+        return vo.getLabel() == null ? "" : vo.getLabel().toLowerCase( Locale.ROOT );
+    }
+
+    // Bound for a range of the label or submission date index
+    private static IDRBindJob.IDRBindJobVO probe( String label, Date submitted, String jobId ) {
+        return new IDRBindJob.IDRBindJobVO( jobId, label, null, false, false, false, null, null, false, submitted, null, null, null );
+    }
+
+    private static Date startOfDay( LocalDate date ) {
+        return Date.from( date.atStartOfDay( ZoneId.systemDefault() ).toInstant() );
+    }
+
+    private static long day( Date submitted ) {
+        return submitted.toInstant().atZone( ZoneId.systemDefault() ).toLocalDate().toEpochDay();
+    }
+
+    // One set of each order and their counts, changed only while holding the view's lock
+    private static final class Indexes {
+        private final NavigableSet<IDRBindJob.IDRBindJobVO> sorted = new ConcurrentSkipListSet<>( ORDER );
+        private final NavigableSet<IDRBindJob.IDRBindJobVO> byLabel = new ConcurrentSkipListSet<>( BY_LABEL );
+        private final NavigableSet<IDRBindJob.IDRBindJobVO> bySubmitted = new ConcurrentSkipListSet<>( BY_SUBMITTED );
+        private final AtomicInteger count = new AtomicInteger();
+        // Jobs submitted on each epoch day
+        private final ConcurrentSkipListMap<Long, AtomicInteger> perDay = new ConcurrentSkipListMap<>();
+
+        void add( IDRBindJob.IDRBindJobVO vo ) {
+            sorted.add( vo );
+            byLabel.add( vo );
+            bySubmitted.add( vo );
+            count.incrementAndGet();
+            if ( vo.getSubmitted() != null ) {
+                perDay.computeIfAbsent( day( vo.getSubmitted() ), d -> new AtomicInteger() ).incrementAndGet();
+            }
+        }
+
+        void remove( IDRBindJob.IDRBindJobVO vo ) {
+            sorted.remove( vo );
+            byLabel.remove( vo );
+            bySubmitted.remove( vo );
+            count.decrementAndGet();
+            if ( vo.getSubmitted() != null ) {
+                long day = day( vo.getSubmitted() );
+                if ( perDay.get( day ).decrementAndGet() == 0 ) {
+                    perDay.remove( day );
+                }
+            }
+        }
+
+        NavigableSet<IDRBindJob.IDRBindJobVO> ordered( SortColumn sort ) {
+            return sort == SortColumn.LABEL ? byLabel : sort == SortColumn.SUBMITTED ? bySubmitted : sorted;
+        }
+
+        // One entry per day with jobs, not one per job
+        int submittedBetween( LocalDate from, LocalDate to ) {
+            NavigableMap<Long, AtomicInteger> days = perDay;
+            if ( from != null ) {
+                days = days.tailMap( from.toEpochDay(), true );
+            }
+            if ( to != null ) {
+                days = days.headMap( to.toEpochDay(), true );
+            }
+            int total = 0;
+            for ( AtomicInteger jobs : days.values() ) {
+                total += jobs.get();
+            }
+            return total;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Page {
+        private final int total;
+        private final int filtered;
+        private final List<IDRBindJob.IDRBindJobVO> rows;
+    }
+
+    public int size() {
+        return all.count.get();
+    }
+
+}
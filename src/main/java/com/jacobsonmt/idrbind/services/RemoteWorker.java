@@ -0,0 +1,268 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.model.JobLeases;
+import com.jacobsonmt.idrbind.model.PredictorPool;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.*;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Worker side of distributed mode, idle unless mode is worker. Each slot leases a job from the coordinator,
+// downloads its inputs into a scratch directory, runs the predictor exactly as a local job would and uploads
+// the outputs. Heartbeats keep the lease while it runs, if the coordinator says the lease was lost the
+// predictor is killed and the job left to whichever worker has it now.
+@Log4j2
+@Service
+public class RemoteWorker {
+
+    private static final String TOKEN_HEADER = "X-Worker-Token";
+
+    @Autowired
+    ApplicationSettings applicationSettings;
+
+    private RestTemplate restTemplate;
+    private String coordinator;
+    private String workerId;
+
+    private ExecutorService slots;
+    private ScheduledExecutorService heartbeats;
+    private PredictorPool predictorPool;
+    private volatile boolean shuttingDown = false;
+
+    @PostConstruct
+    private void initialize() {
+        if ( applicationSettings.getMode() != ApplicationSettings.Mode.WORKER ) {
+            return;
+        }
+        if ( applicationSettings.getCoordinatorUrl() == null || applicationSettings.getCoordinatorUrl().isEmpty() ) {
+            throw new IllegalStateException( "Worker mode needs idrbind.settings.coordinator-url" );
+        }
+
+        coordinator = applicationSettings.getCoordinatorUrl().replaceAll( "/+$", "" ) + "/api/worker";
+        workerId = applicationSettings.getWorkerId();
+        if ( workerId == null || workerId.isEmpty() ) {
+            workerId = hostName() + "-" + UUID.randomUUID().toString().substring( 0, 8 );
+        }
+
+        // Lease requests are long polls, leave them time to come back. Uploads are streamed, not buffered.
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout( 10000 );
+        requestFactory.setReadTimeout( ( applicationSettings.getLeaseWaitSeconds() + 60 ) * 1000 );
+        requestFactory.setBufferRequestBody( false );
+        restTemplate = new RestTemplate( requestFactory );
+
+        int threads = Math.max( 1, applicationSettings.getWorkerSlots() );
+        log.info( "Worker (" + workerId + ") running " + threads + " jobs at once for " + coordinator );
+        predictorPool = JobManager.createPredictorPool( applicationSettings, threads );
+        slots = Executors.newFixedThreadPool( threads );
+        for ( int i = 0; i < threads; i++ ) {
+            slots.submit( this::workLoop );
+        }
+        heartbeats = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        shuttingDown = true;
+        if ( slots != null ) {
+            // Running predictors are killed, their leases expire and the coordinator hands the jobs out again
+            slots.shutdownNow();
+            heartbeats.shutdownNow();
+        }
+        if ( predictorPool != null ) {
+            predictorPool.shutdown();
+        }
+    }
+
+    private void workLoop() {
+        while ( !shuttingDown ) {
+            // Left over from a lost lease
+            Thread.interrupted();
+            try {
+                JobLeases.LeaseVO lease = lease();
+                if ( lease != null ) {
+                    run( lease );
+                }
+            } catch ( InterruptedException e ) {
+                // Lease lost or shutting down, the loop condition tells which
+            } catch ( RestClientException | IOException e ) {
+                log.warn( "Worker (" + workerId + ") could not reach coordinator: " + e.getMessage() );
+                try {
+                    Thread.sleep( 5000 );
+                } catch ( InterruptedException ie ) {
+                    // Checked by the loop
+                }
+            } catch ( RuntimeException e ) {
+                log.error( "Unexpected error in worker (" + workerId + ")", e );
+            }
+        }
+    }
+
+    private JobLeases.LeaseVO lease() {
+        ResponseEntity<JobLeases.LeaseVO> response = restTemplate.exchange(
+                coordinator + "/lease?workerId={workerId}&wait={wait}", HttpMethod.POST, new HttpEntity<>( headers() ),
+                JobLeases.LeaseVO.class, workerId, applicationSettings.getLeaseWaitSeconds() );
+        return response.getStatusCode() == HttpStatus.OK ? response.getBody() : null;
+    }
+
+    private void run( JobLeases.LeaseVO lease ) throws IOException, InterruptedException {
+        // Named by lease, the same job may come back to this machine after a lease was lost
+        Path directory = Paths.get( applicationSettings.getJobsDirectory(), lease.getLeaseId() );
+        IDRBindJob job = IDRBindJob.builder()
+                .jobId( lease.getJobId() )
+                .label( lease.getLabel() )
+                .command( applicationSettings.getCommand() )
+                .commandWorkingDirectory( applicationSettings.getCommandWorkingDirectory() )
+                .commandTimeoutMillis( applicationSettings.getCommandTimeoutMinutes() * 60L * 1000L )
+                .commandOutputLines( applicationSettings.getCommandOutputLines() )
+                .predictorPool( predictorPool )
+                .jobDirectory( directory.toString() )
+                .inputPDBFullPath( directory.resolve( applicationSettings.getInputPDBPath() ).toString() )
+                .inputProteinChainFullPath( directory.resolve( applicationSettings.getInputChainPath() ).toString() )
+                .outputScoredPDBFullPath( directory.resolve( applicationSettings.getOutputScoredPDBPath() ).toString() )
+                .outputCSVFullPath( directory.resolve( applicationSettings.getOutputCSVPath() ).toString() )
+                .build();
+
+        log.info( "Worker (" + workerId + ") running job (" + job.getJobId() + ")" );
+        AtomicBoolean lost = new AtomicBoolean();
+        // Cleared once this job is done with the slot, a heartbeat answered late must not interrupt the next job
+        AtomicReference<Thread> slot = new AtomicReference<>( Thread.currentThread() );
+        int interval = Math.max( 1, applicationSettings.getWorkerHeartbeatSeconds() );
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleWithFixedDelay( () -> {
+            if ( !heartbeat( lease ) ) {
+                synchronized ( slot ) {
+                    if ( slot.get() != null && lost.compareAndSet( false, true ) ) {
+                        log.warn( "Worker (" + workerId + ") lost lease on job (" + job.getJobId() + "), abandoning it" );
+                        slot.get().interrupt();
+                    }
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS );
+
+        try {
+            Files.createDirectories( directory );
+            download( lease, "pdb", Paths.get( job.getInputPDBFullPath() ) );
+            download( lease, "chain", Paths.get( job.getInputProteinChainFullPath() ) );
+
+            try {
+                job.execute();
+            } catch ( IOException e ) {
+                log.error( e );
+                failure( lease, job, e.getMessage() );
+                return;
+            }
+
+            heartbeat.cancel( false );
+            if ( !lost.get() ) {
+                upload( lease, job );
+            }
+        } finally {
+            heartbeat.cancel( false );
+            synchronized ( slot ) {
+                slot.set( null );
+            }
+            FileSystemUtils.deleteRecursively( new File( job.getJobDirectory() ) );
+        }
+    }
+
+    // False only when the coordinator no longer knows the lease, other errors are left to lease expiry
+    private boolean heartbeat( JobLeases.LeaseVO lease ) {
+        try {
+            restTemplate.exchange( coordinator + "/lease/{leaseId}/heartbeat", HttpMethod.POST, new HttpEntity<>( headers() ),
+                    Void.class, lease.getLeaseId() );
+        } catch ( HttpClientErrorException e ) {
+            return e.getStatusCode() != HttpStatus.GONE;
+        } catch ( RestClientException e ) {
+            log.warn( "Heartbeat for lease (" + lease.getLeaseId() + ") failed: " + e.getMessage() );
+        }
+        return true;
+    }
+
+    private void download( JobLeases.LeaseVO lease, String input, Path target ) {
+        restTemplate.execute( coordinator + "/lease/{leaseId}/" + input, HttpMethod.GET,
+                request -> request.getHeaders().putAll( headers() ),
+                response -> Files.copy( response.getBody(), target, StandardCopyOption.REPLACE_EXISTING ),
+                lease.getLeaseId() );
+    }
+
+    private void upload( JobLeases.LeaseVO lease, IDRBindJob job ) {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add( "scoredPdb", new FileSystemResource( job.getOutputScoredPDBFullPath() ) );
+        body.add( "csv", new FileSystemResource( job.getOutputCSVFullPath() ) );
+        body.add( "executionTime", Long.toString( job.getExecutionTime() ) );
+        if ( job.getExitCode() != null ) {
+            body.add( "exitCode", job.getExitCode().toString() );
+        }
+
+        HttpHeaders headers = headers();
+        headers.setContentType( MediaType.MULTIPART_FORM_DATA );
+        try {
+            restTemplate.postForEntity( coordinator + "/lease/{leaseId}/result", new HttpEntity<>( body, headers ),
+                    Void.class, lease.getLeaseId() );
+            log.info( "Worker (" + workerId + ") finished job (" + job.getJobId() + ")" );
+        } catch ( HttpClientErrorException e ) {
+            log.warn( "Result of job (" + job.getJobId() + ") not accepted: " + e.getStatusCode() );
+        }
+    }
+
+    private void failure( JobLeases.LeaseVO lease, IDRBindJob job, String message ) {
+        MultiValueMap<String, String> body = new LinkedMultiValueMap<>();
+        body.add( "executionTime", Long.toString( job.getExecutionTime() ) );
+        if ( job.getExitCode() != null ) {
+            body.add( "exitCode", job.getExitCode().toString() );
+        }
+        body.add( "timedOut", Boolean.toString( job.isTimedOut() ) );
+        body.add( "message", message );
+
+        HttpHeaders headers = headers();
+        headers.setContentType( MediaType.APPLICATION_FORM_URLENCODED );
+        try {
+            restTemplate.postForEntity( coordinator + "/lease/{leaseId}/failure", new HttpEntity<>( body, headers ),
+                    Void.class, lease.getLeaseId() );
+        } catch ( HttpClientErrorException e ) {
+            log.warn( "Failure of job (" + job.getJobId() + ") not accepted: " + e.getStatusCode() );
+        }
+    }
+
+    private HttpHeaders headers() {
+        HttpHeaders headers = new HttpHeaders();
+        String token = applicationSettings.getWorkerToken();
+        if ( token != null && !token.isEmpty() ) {
+            headers.set( TOKEN_HEADER, token );
+        }
+        return headers;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch ( IOException e ) {
+            return "worker";
+        }
+    }
+
+}
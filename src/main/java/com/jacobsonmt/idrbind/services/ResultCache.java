@@ -0,0 +1,200 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJobResult;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+// Results of successful jobs keyed by a hash of their normalized inputs, so resubmissions
+// of the same structure and chains can be answered without running the predictor again.
+@Log4j2
+@Service
+public class ResultCache {
+
+    @Autowired
+    ApplicationSettings applicationSettings;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    // Access ordered, the eldest entry is the least recently used
+    private final Map<String, CachedResult> cache = new LinkedHashMap<String, CachedResult>( 16, 0.75f, true ) {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, CachedResult> eldest ) {
+            if ( size() > applicationSettings.getResultCacheSize() ) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    private void initialize() {
+        Gauge.builder( "idrbind.cache.size", this, ResultCache::size ).register( meterRegistry );
+        FunctionCounter.builder( "idrbind.cache.requests", hits, AtomicLong::get ).tag( "result", "hit" ).register( meterRegistry );
+        FunctionCounter.builder( "idrbind.cache.requests", misses, AtomicLong::get ).tag( "result", "miss" ).register( meterRegistry );
+        FunctionCounter.builder( "idrbind.cache.evictions", evictions, AtomicLong::get ).register( meterRegistry );
+    }
+
+    public static String key( String inputPDBContent, String inputProteinChainIds ) {
+        KeyDigest digest = new KeyDigest();
+        byte[] content = inputPDBContent.getBytes( StandardCharsets.UTF_8 );
+        digest.update( content, 0, content.length );
+        return digest.finish( inputProteinChainIds );
+    }
+
+    // Incremental form of key() for structures that are streamed rather than held in memory
+    public static final class KeyDigest {
+        private final MessageDigest digest;
+        private byte[] line = new byte[128];
+        private int length = 0;
+
+        public KeyDigest() {
+            try {
+                digest = MessageDigest.getInstance( "SHA-256" );
+            } catch ( NoSuchAlgorithmException e ) {
+                throw new IllegalStateException( e );
+            }
+        }
+
+        public void update( byte[] buffer, int offset, int count ) {
+            for ( int i = offset; i < offset + count; i++ ) {
+                if ( buffer[i] == '\n' ) {
+                    endLine();
+                } else {
+                    if ( length == line.length ) {
+                        line = Arrays.copyOf( line, line.length * 2 );
+                    }
+                    line[length++] = buffer[i];
+                }
+            }
+        }
+
+        public String finish( String inputProteinChainIds ) {
+            endLine();
+
+            // Separates the structure from the chains
+            digest.update( (byte) 0 );
+            digest.update( inputProteinChainIds.trim().getBytes( StandardCharsets.UTF_8 ) );
+
+            StringBuilder hex = new StringBuilder();
+            for ( byte b : digest.digest() ) {
+                hex.append( String.format( "%02x", b ) );
+            }
+            return hex.toString();
+        }
+
+        // Line endings, trailing whitespace and blank lines don't change the structure
+        private void endLine() {
+            int end = length;
+            while ( end > 0 && ( line[end - 1] == ' ' || ( line[end - 1] >= 9 && line[end - 1] <= 13 ) ) ) end--;
+            if ( end > 0 ) {
+                digest.update( line, 0, end );
+                digest.update( (byte) '\n' );
+            }
+            length = 0;
+        }
+    }
+
+    // Only a hit once link made the job its own copy of the cached files, an entry whose files are gone is dropped
+    public IDRBindJobResult get( String key, UnaryOperator<IDRBindJobResult> link ) {
+        if ( !applicationSettings.isResultCacheEnabled() || key == null ) {
+            return null;
+        }
+
+        CachedResult cached;
+        synchronized ( cache ) {
+            cached = cache.get( key );
+            if ( cached != null && System.currentTimeMillis() - cached.created > applicationSettings.getResultCacheHours() * 60L * 60L * 1000L ) {
+                cache.remove( key );
+                evictions.incrementAndGet();
+                cached = null;
+            }
+        }
+
+        // Outside the lock, it touches the file system
+        IDRBindJobResult result = cached != null ? link.apply( cached.result ) : null;
+        if ( result == null ) {
+            misses.incrementAndGet();
+            if ( cached != null ) {
+                remove( key, cached.result );
+            }
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return result;
+    }
+
+    public void put( String key, IDRBindJobResult result ) {
+        if ( !applicationSettings.isResultCacheEnabled() || key == null || result == null ) {
+            return;
+        }
+
+        synchronized ( cache ) {
+            cache.put( key, new CachedResult( result, System.currentTimeMillis() ) );
+        }
+    }
+
+    // Drops the entry if it still holds this result, e.g. once the job that produced it is purged
+    public void remove( String key, IDRBindJobResult result ) {
+        if ( key == null || result == null ) {
+            return;
+        }
+
+        synchronized ( cache ) {
+            CachedResult cached = cache.get( key );
+            if ( cached != null && cached.result == result ) {
+                cache.remove( key );
+            }
+        }
+    }
+
+    public int size() {
+        synchronized ( cache ) {
+            return cache.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static final class CachedResult {
+        private final IDRBindJobResult result;
+        private final long created;
+
+        CachedResult( IDRBindJobResult result, long created ) {
+            this.result = result;
+            this.created = created;
+        }
+    }
+
+}
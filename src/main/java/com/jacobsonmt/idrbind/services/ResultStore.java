@@ -0,0 +1,107 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJobResult;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+// Keeps job outputs on disk, one directory per job, so only their paths live on the heap.
+@Log4j2
+@Service
+public class ResultStore {
+
+    private static final String RESULT_PDB = "result.pdb";
+    private static final String RESULT_CSV = "result.csv";
+    private static final String GZIP_SUFFIX = ".gz";
+
+    @Autowired
+    ApplicationSettings applicationSettings;
+
+    // Moves the outputs of a finished job into the store
+    public IDRBindJobResult store( String jobId, Path scoredPDB, Path csv ) throws IOException {
+        Path directory = Files.createDirectories( jobDirectory( jobId ) );
+
+        Path resultPDB = Files.move( scoredPDB, directory.resolve( RESULT_PDB ), StandardCopyOption.REPLACE_EXISTING );
+        Path resultCSV = Files.move( csv, directory.resolve( RESULT_CSV ), StandardCopyOption.REPLACE_EXISTING );
+
+        if ( applicationSettings.isCompressResults() ) {
+            compress( resultPDB );
+            compress( resultCSV );
+        }
+
+        return new IDRBindJobResult( resultPDB, resultCSV );
+    }
+
+    // Gives a job its own copy of an existing result, hard linked where the file system allows.
+    // Returns null if the source has since been purged.
+    public IDRBindJobResult link( String jobId, IDRBindJobResult source ) {
+        if ( source == null || source.getResultPDBFile() == null || !Files.exists( source.getResultPDBFile() )
+                || !Files.exists( source.getResultCSVFile() ) ) {
+            return null;
+        }
+
+        try {
+            Path directory = Files.createDirectories( jobDirectory( jobId ) );
+
+            Path resultPDB = linkOrCopy( source.getResultPDBFile(), directory.resolve( RESULT_PDB ) );
+            Path resultCSV = linkOrCopy( source.getResultCSVFile(), directory.resolve( RESULT_CSV ) );
+
+            return new IDRBindJobResult( resultPDB, resultCSV );
+        } catch ( IOException e ) {
+            log.warn( "Could not link result for job (" + jobId + ")", e );
+            delete( jobId );
+            return null;
+        }
+    }
+
+    public void delete( String jobId ) {
+        try {
+            FileSystemUtils.deleteRecursively( jobDirectory( jobId ) );
+        } catch ( IOException e ) {
+            log.warn( "Could not delete result for job (" + jobId + ")", e );
+        }
+    }
+
+    // Pre-compressed variant of a stored result, or null if there isn't one
+    public Path gzipVariant( Path file ) {
+        Path gzip = file.resolveSibling( file.getFileName() + GZIP_SUFFIX );
+        return Files.exists( gzip ) ? gzip : null;
+    }
+
+    private Path jobDirectory( String jobId ) {
+        return Paths.get( applicationSettings.getResultsDirectory(), jobId );
+    }
+
+    private Path linkOrCopy( Path source, Path target ) throws IOException {
+        Files.deleteIfExists( target );
+        try {
+            Files.createLink( target, source );
+        } catch ( IOException | UnsupportedOperationException e ) {
+            Files.copy( source, target );
+        }
+
+        Path gzip = gzipVariant( source );
+        if ( gzip != null ) {
+            linkOrCopy( gzip, target.resolveSibling( target.getFileName() + GZIP_SUFFIX ) );
+        }
+        return target;
+    }
+
+    private static void compress( Path file ) throws IOException {
+        Path gzip = file.resolveSibling( file.getFileName() + GZIP_SUFFIX );
+        try ( OutputStream out = new GZIPOutputStream( Files.newOutputStream( gzip ) ) ) {
+            Files.copy( file, out );
+        }
+    }
+
+}
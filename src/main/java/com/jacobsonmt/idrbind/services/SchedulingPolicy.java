@@ -0,0 +1,23 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Decides which user's queue supplies the next job handed to the executor.
+// Calls are serialized by JobManager so implementations need no locking of their own.
+public interface SchedulingPolicy {
+
+    // A job was added to the user's queue
+    void enqueued( String userId );
+
+    // Picks the user to dispatch from next, or null if no eligible user has waiting jobs.
+    // head gives the next job in a user's queue (null when empty), eligible tells whether the
+    // user may have another job dispatched right now.
+    String nextUser( Function<String, IDRBindJob> head, Predicate<String> eligible );
+
+    // The user's head job was dispatched
+    void dispatched( String userId, IDRBindJob job );
+
+}
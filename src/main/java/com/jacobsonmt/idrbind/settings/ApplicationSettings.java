@@ -5,24 +5,81 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
 @Component
 @ConfigurationProperties(prefix = "idrbind.settings")
 @Getter
 @Setter
 public class ApplicationSettings {
 
+    public enum SchedulingPolicyType {
+        FIFO, FAIR_SHARE
+    }
+
+    public enum Mode {
+        STANDALONE, COORDINATOR, WORKER
+    }
+
+    private Mode mode = Mode.STANDALONE;
     private String command;
     private String commandWorkingDirectory;
+    private int commandTimeoutMinutes = 120;
+    private int commandOutputLines = 200;
+    private String predictorDaemonCommand;
+    private int predictorDaemonMaxJobs = 100;
+    private int predictorDaemonMaxMemoryMb = 0;
+    private int predictorDaemonStartupSeconds = 300;
+    private int predictorDaemonHealthCheckSeconds = 60;
+    private String jobsDirectory = Paths.get( System.getProperty( "java.io.tmpdir" ), "idrbind", "jobs" ).toString();
+    private String resultsDirectory = Paths.get( System.getProperty( "java.io.tmpdir" ), "idrbind", "results" ).toString();
+    private boolean compressResults = true;
+    private boolean journalEnabled = true;
+    private String journalDirectory = Paths.get( System.getProperty( "java.io.tmpdir" ), "idrbind", "journal" ).toString();
+    private int journalCompactEvents = 10000;
     private String inputPDBPath;
     private String inputChainPath;
     private String outputScoredPDBPath;
     private String outputCSVPath;
-    private int concurrentJobs = 1;
+    private String concurrentJobs = "1";
+    private int jobMemoryMb = 2048;
+    private int processQueueCapacity = 4;
+    private int fastLaneWorkers = 0;
+    private int fastLaneMaxResidues = 300;
+    private SchedulingPolicyType schedulingPolicy = SchedulingPolicyType.FAIR_SHARE;
+    private double defaultUserWeight = 1.0;
+    private Map<String, Double> userWeights = new HashMap<>();
+    private int maxQueuedJobs = 1000;
+    private int maxBatchJobs = 200;
+    private long maxInputBytes = 50L * 1024 * 1024;
+    private boolean validateInputs = true;
+    private boolean trimToRequestedChains = false;
     private int userProcessLimit = 2;
     private int userJobLimit = 200;
     private boolean purgeSavedJobs = true;
     private int purgeSavedJobsTimeHours = 1;
     private int purgeAfterHours = 24;
+    private int savedJobsMemoryMb = 0;
+    private int savedJobsMinRetentionMinutes = 60;
     private boolean emailOnJobStart = true;
+    private int emailQueueCapacity = 10000;
+    private int emailSenderThreads = 1;
+    private int emailBatchSize = 50;
+    private int emailMaxAttempts = 5;
+    private int emailRetryBackoffSeconds = 30;
+    private int maxEventSubscribers = 10000;
+    private int eventStreamTimeoutMinutes = 30;
+    private boolean resultCacheEnabled = true;
+    private int resultCacheSize = 1000;
+    private int resultCacheHours = 168;
+    private int leaseTimeoutSeconds = 60;
+    private int leaseWaitSeconds = 20;
+    private String workerToken;
+    private String coordinatorUrl;
+    private String workerId;
+    private int workerSlots = 1;
+    private int workerHeartbeatSeconds = 15;
 
 }
\ No newline at end of file
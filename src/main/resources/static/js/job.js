@@ -0,0 +1,17 @@
+$(document).ready(function () {
+    var status = $('#job-status');
+    var url = status.data('events');
+    if (!url || !window.EventSource) {
+        return;
+    }
+
+    var source = new EventSource(url);
+    source.addEventListener('status', function (e) {
+        status.text(JSON.parse(e.data).status);
+    });
+    source.addEventListener('complete', function () {
+        source.close();
+        // Results are rendered server-side
+        window.location.reload();
+    });
+});
@@ -1,8 +1,62 @@
 $(document).ready(function () {
-    $('.job-table').DataTable({
+    // The next page continues from the last job of the page before it instead of skipping rows
+    var requested = null;
+    var previous = null;
+
+    var table = $('.job-table').on('xhr.dt', function (e, settings, json) {
+        var rows = json && json.data;
+        previous = requested && rows && rows.length ? {
+            query: requested.query,
+            start: requested.start,
+            jobId: rows[rows.length - 1].jobId
+        } : null;
+    }).DataTable({
         "paging": true,
-        "searching": false,
-        "info": false,
-        "order": []
+        "searching": true,
+        "info": true,
+        "order": [],
+        "processing": true,
+        "serverSide": true,
+        "ajax": {
+            "url": "api/queue",
+            "data": function (d) {
+                d.status = $('#status-filter').val();
+                d.from = $('#from-filter').val();
+                d.to = $('#to-filter').val();
+                var query = JSON.stringify([d.order, d.search, d.length, d.status, d.from, d.to]);
+                if (previous && previous.query === query && d.start === previous.start + d.length) {
+                    d.after = previous.jobId;
+                }
+                requested = {query: query, start: d.start};
+            }
+        },
+        "language": {
+            "search": "Label:"
+        },
+        "columns": [
+            {
+                "data": "jobId",
+                "orderable": false,
+                "render": function (data, type) {
+                    if (type !== 'display') {
+                        return data;
+                    }
+                    return $('<a target="_blank" class="align-middle"/>').attr('href', 'job/' + data).text(data)[0].outerHTML;
+                }
+            },
+            {"data": "label", "render": $.fn.dataTable.render.text()},
+            {"data": "status", "orderable": false, "render": $.fn.dataTable.render.text()},
+            {"data": "email", "orderable": false, "render": $.fn.dataTable.render.text()},
+            {
+                "data": "submitted",
+                "render": function (data) {
+                    return data ? new Date(data).toLocaleString() : '';
+                }
+            }
+        ]
     });
-});
\ No newline at end of file
+
+    $('.queue-filters').on('change', 'select, input', function () {
+        table.draw();
+    });
+});
@@ -0,0 +1,65 @@
+package com.jacobsonmt.idrbind.controllers;
+
+import com.jacobsonmt.idrbind.services.ResultStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+public class JobControllerTest {
+
+    private final JobController jobController = new JobController();
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        ReflectionTestUtils.setField( jobController, "resultStore", new ResultStore() );
+        file = Files.createTempFile( "result", ".csv" );
+        Files.write( file, "0123456789".getBytes( StandardCharsets.US_ASCII ) );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( file );
+    }
+
+    @Test
+    public void servesSatisfiableRange() throws Exception {
+        MockHttpServletResponse response = send( "bytes=4-" );
+
+        assertEquals( HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus() );
+        assertEquals( "bytes 4-9/10", response.getHeader( HttpHeaders.CONTENT_RANGE ) );
+        assertEquals( "456789", response.getContentAsString() );
+    }
+
+    @Test
+    public void refusesRangeStartingPastTheEnd() throws Exception {
+        for ( String range : new String[]{ "bytes=10-", "bytes=25-30" } ) {
+            MockHttpServletResponse response = send( range );
+
+            assertEquals( range, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus() );
+            assertEquals( "bytes */10", response.getHeader( HttpHeaders.CONTENT_RANGE ) );
+            assertEquals( 0, response.getContentAsByteArray().length );
+        }
+    }
+
+    private MockHttpServletResponse send( String range ) {
+        MockHttpServletRequest request = new MockHttpServletRequest( "GET", "/job/1/resultCSV" );
+        request.addHeader( HttpHeaders.RANGE, range );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ReflectionTestUtils.invokeMethod( jobController, "sendResultFile", file, "job-result.csv", request, response );
+        return response;
+    }
+
+}
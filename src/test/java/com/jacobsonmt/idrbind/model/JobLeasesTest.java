@@ -0,0 +1,81 @@
+package com.jacobsonmt.idrbind.model;
+
+import org.junit.Test;
+
+import static com.jacobsonmt.idrbind.model.TestJobs.job;
+import static org.junit.Assert.*;
+
+public class JobLeasesTest {
+
+    @Test
+    public void rejectsOffersBeyondCapacity() {
+        JobLeases leases = new JobLeases( 2 );
+
+        assertTrue( leases.offer( job( "job-1" ) ) );
+        assertTrue( leases.offer( job( "job-2" ) ) );
+        assertFalse( leases.hasCapacity() );
+        assertFalse( leases.offer( job( "job-3" ) ) );
+        assertEquals( 2, leases.waitingCount() );
+    }
+
+    @Test
+    public void leasesInOrderAndReturnsEmptyWhenNothingWaits() throws Exception {
+        JobLeases leases = new JobLeases( 4 );
+        leases.offer( job( "job-1" ) );
+        leases.offer( job( "job-2" ) );
+
+        assertEquals( "job-1", leases.take( "worker", 0 ).getJob().getJobId() );
+        assertEquals( "job-2", leases.take( "worker", 0 ).getJob().getJobId() );
+        assertNull( leases.take( "worker", 50 ) );
+        assertEquals( 2, leases.leaseCount() );
+    }
+
+    @Test
+    public void expiredLeaseIsLostAndJobCanBeRequeued() throws Exception {
+        JobLeases leases = new JobLeases( 4 );
+        leases.offer( job( "job-1" ) );
+        leases.offer( job( "job-2" ) );
+        JobLeases.Lease lease = leases.take( "worker-1", 0 );
+
+        Thread.sleep( 20 );
+        assertEquals( 1, leases.expire( 10 ).size() );
+        assertNull( leases.heartbeat( lease.getLeaseId() ) );
+        assertNull( leases.release( lease.getLeaseId() ) );
+
+        // Ahead of everything that was already waiting
+        leases.requeue( lease.getJob() );
+        JobLeases.Lease next = leases.take( "worker-2", 0 );
+        assertEquals( "job-1", next.getJob().getJobId() );
+        assertNotEquals( lease.getLeaseId(), next.getLeaseId() );
+    }
+
+    @Test
+    public void heartbeatKeepsLease() throws Exception {
+        JobLeases leases = new JobLeases( 4 );
+        leases.offer( job( "job-1" ) );
+        JobLeases.Lease lease = leases.take( "worker", 0 );
+
+        Thread.sleep( 20 );
+        assertNotNull( leases.heartbeat( lease.getLeaseId() ) );
+        assertTrue( leases.expire( 10 ).isEmpty() );
+        assertSame( lease, leases.release( lease.getLeaseId() ) );
+        assertEquals( 0, leases.leaseCount() );
+    }
+
+    @Test
+    public void removesWaitingAndLeasedJobs() throws Exception {
+        JobLeases leases = new JobLeases( 4 );
+        IDRBindJob leased = job( "job-1" );
+        IDRBindJob waiting = job( "job-2" );
+        leases.offer( leased );
+        leases.offer( waiting );
+        JobLeases.Lease lease = leases.take( "worker", 0 );
+
+        assertTrue( leases.remove( waiting ) );
+        assertTrue( leases.remove( leased ) );
+        assertFalse( leases.remove( leased ) );
+        assertEquals( 0, leases.waitingCount() );
+        assertNull( leases.heartbeat( lease.getLeaseId() ) );
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.jacobsonmt.idrbind.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class PdbParserTest {
+
+    @Test
+    public void reportsMalformedAtomLines() throws IOException {
+        String pdb = atom( "ATOM", 1, 'A', 1 ) + "\n"
+                + atom( "ATOM", 2, 'A', 1 ).replace( "   1.000", "   x.000" ) + "\n";
+        PdbParser parser = parse( pdb, "A" );
+        assertTrue( parser.getError(), parser.getError().startsWith( "Malformed ATOM record at line 2" ) );
+
+        parser = parse( atom( "ATOM", 1, 'A', 1 ).substring( 0, 40 ) + "\n", "A" );
+        assertTrue( parser.getError(), parser.getError().startsWith( "Malformed ATOM record at line 1" ) );
+    }
+
+    @Test
+    public void reportsMissingChains() throws IOException {
+        String pdb = atom( "ATOM", 1, 'A', 1 ) + "\n" + atom( "ATOM", 2, 'C', 1 ) + "\n";
+
+        assertEquals( "Chain B not found in structure, it has chains: AC", parse( pdb, "A,B" ).getError() );
+
+        // Ids that aren't single characters can't be checked, all chains count
+        PdbParser parser = parse( pdb, "AB" );
+        assertNull( parser.getError() );
+        assertEquals( 2, parser.getResidueCount() );
+    }
+
+    @Test
+    public void acceptsCrlfLineEndings() throws IOException {
+        String pdb = "HEADER    TEST\r\n" + atom( "ATOM", 1, 'A', 1 ) + "\r\n" + atom( "ATOM", 2, 'A', 2 ) + "\r\nEND\r\n";
+        PdbParser parser = parse( pdb, "A" );
+        assertNull( parser.getError() );
+        assertEquals( "A", parser.getChains() );
+        assertEquals( 2, parser.getResidueCount() );
+    }
+
+    @Test
+    public void countsResiduesOfTheFirstModelOnly() throws IOException {
+        StringBuilder pdb = new StringBuilder();
+        for ( int model = 1; model <= 3; model++ ) {
+            pdb.append( "MODEL        " ).append( model ).append( "\n" );
+            pdb.append( atom( "ATOM", 1, 'A', 1 ) ).append( "\n" );
+            pdb.append( atom( "ATOM", 2, 'A', 1 ) ).append( "\n" );
+            pdb.append( atom( "ATOM", 3, 'A', 2 ) ).append( "\n" );
+            pdb.append( atom( "ATOM", 4, 'B', 1 ) ).append( "\n" );
+            pdb.append( "ENDMDL\n" );
+        }
+        PdbParser parser = parse( pdb.toString(), null );
+        assertNull( parser.getError() );
+        assertEquals( 3, parser.getResidueCount() );
+        assertEquals( 2, parse( pdb.toString(), "A" ).getResidueCount() );
+    }
+
+    @Test
+    public void acceptsHetatmOnlyFiles() throws IOException {
+        String pdb = atom( "HETATM", 1, 'A', 1 ) + "\n" + atom( "HETATM", 2, 'A', 2 ) + "\n";
+        PdbParser parser = parse( pdb, "A" );
+        assertNull( parser.getError() );
+        assertEquals( "A", parser.getChains() );
+        assertEquals( 0, parser.getResidueCount() );
+
+        assertEquals( "No ATOM or HETATM records found", parse( "HEADER    EMPTY\nEND\n", null ).getError() );
+    }
+
+    // Fed in small pieces so lines are split across updates
+    private static PdbParser parse( String pdb, String chainIds ) throws IOException {
+        PdbParser parser = new PdbParser( chainIds, false, new ByteArrayOutputStream() );
+        byte[] bytes = pdb.getBytes( StandardCharsets.US_ASCII );
+        for ( int offset = 0; offset < bytes.length; offset += 7 ) {
+            parser.update( bytes, offset, Math.min( 7, bytes.length - offset ) );
+        }
+        parser.finish();
+        return parser;
+    }
+
+    private static String atom( String record, int serial, char chain, int residue ) {
+        return String.format( Locale.ROOT, "%-6s%5d  CA  ALA %c%4d    %8.3f%8.3f%8.3f%6.2f%6.2f",
+                record, serial, chain, residue, 1.0, 2.0, 3.0, 1.0, 0.0 );
+    }
+
+}
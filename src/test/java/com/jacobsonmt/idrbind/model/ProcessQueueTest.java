@@ -0,0 +1,74 @@
+package com.jacobsonmt.idrbind.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jacobsonmt.idrbind.model.TestJobs.job;
+import static org.junit.Assert.*;
+
+public class ProcessQueueTest {
+
+    @Test
+    public void positionsMoveUpAsJobsStart() {
+        ProcessQueue queue = new ProcessQueue();
+        IDRBindJob first = job( "job-1" );
+        IDRBindJob second = job( "job-2" );
+        queue.add( first );
+        queue.add( second );
+
+        assertEquals( Integer.valueOf( 2 ), queue.position( second ) );
+        queue.start( first );
+        assertNull( queue.position( first ) );
+        assertEquals( Integer.valueOf( 1 ), queue.position( second ) );
+        assertEquals( 2, queue.size() );
+        assertEquals( 1, queue.waitingCount() );
+    }
+
+    @Test
+    public void fastLaneHasItsOwnLine() {
+        ProcessQueue queue = new ProcessQueue();
+        IDRBindJob large = job( "large" );
+        IDRBindJob small = job( "small" );
+        queue.add( large );
+        queue.add( small, true );
+
+        assertEquals( Integer.valueOf( 1 ), queue.position( large ) );
+        assertEquals( Integer.valueOf( 1 ), queue.position( small ) );
+        assertEquals( 2, queue.waitingCount() );
+        assertEquals( 2, queue.count( TestJobs.USER ) );
+
+        queue.remove( small );
+        assertEquals( 1, queue.waitingCount() );
+        assertEquals( 1, queue.count( TestJobs.USER ) );
+    }
+
+    @Test
+    public void ranksSurviveGrowingPastTheInitialWindow() {
+        ProcessQueue queue = new ProcessQueue();
+        List<IDRBindJob> waiting = new ArrayList<>();
+        int size = 0;
+        for ( int i = 0; i < 3000; i++ ) {
+            IDRBindJob job = job( "job-" + i );
+            queue.add( job );
+            waiting.add( job );
+            size++;
+            // Take jobs out of the middle, the head stays so the window has to grow rather than slide
+            if ( i % 3 == 2 ) {
+                queue.start( waiting.remove( waiting.size() / 2 ) );
+            }
+            if ( i % 5 == 4 ) {
+                queue.remove( waiting.remove( waiting.size() / 2 ) );
+                size--;
+            }
+        }
+
+        assertEquals( size, queue.size() );
+        assertEquals( waiting.size(), queue.waitingCount() );
+        for ( int i = 0; i < waiting.size(); i++ ) {
+            assertEquals( Integer.valueOf( i + 1 ), queue.position( waiting.get( i ) ) );
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.jacobsonmt.idrbind.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.jacobsonmt.idrbind.model.TestJobs.job;
+import static org.junit.Assert.*;
+
+public class PurgeOldJobsTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    private final Map<String, IDRBindJob> savedJobs = new ConcurrentHashMap<>();
+    private final List<IDRBindJob> purged = new ArrayList<>();
+
+    @Test
+    public void purgesOnlyExpiredCompletedJobs() {
+        PurgeOldJobs purgeOldJobs = new PurgeOldJobs( savedJobs, purged::add, 60000, 0, HOUR, 0 );
+        long now = System.currentTimeMillis();
+        IDRBindJob expired = save( purgeOldJobs, "expired", true, now - 1000 );
+        IDRBindJob fresh = save( purgeOldJobs, "fresh", true, now + 60000 );
+        IDRBindJob running = save( purgeOldJobs, "running", false, null );
+
+        purgeOldJobs.run();
+
+        assertEquals( 1, purged.size() );
+        assertSame( expired, purged.get( 0 ) );
+        assertFalse( expired.isSaved() );
+        assertSame( fresh, savedJobs.get( "fresh" ) );
+        assertSame( running, savedJobs.get( "running" ) );
+    }
+
+    @Test
+    public void viewedJobIsKeptPastItsOriginalExpiry() {
+        PurgeOldJobs purgeOldJobs = new PurgeOldJobs( savedJobs, purged::add, 60000, 0, HOUR, 0 );
+        IDRBindJob job = save( purgeOldJobs, "viewed", true, System.currentTimeMillis() - 1000 );
+        job.setSaveExpiredDate( System.currentTimeMillis() + 60000 );
+
+        purgeOldJobs.run();
+
+        assertTrue( purged.isEmpty() );
+        assertSame( job, savedJobs.get( "viewed" ) );
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedJobsDownToTheBudget() {
+        long now = System.currentTimeMillis();
+        IDRBindJob probe = job( "probe", true, now );
+        PurgeOldJobs purgeOldJobs = new PurgeOldJobs( savedJobs, purged::add, 60000, probe.approximateSize() * 2, HOUR, 0 );
+        // None are due, job-1 was used longest ago
+        List<IDRBindJob> complete = new ArrayList<>();
+        for ( int i = 1; i <= 5; i++ ) {
+            complete.add( save( purgeOldJobs, "job-" + i, true, now + HOUR - ( 10 - i ) * 1000 ) );
+        }
+        IDRBindJob running = save( purgeOldJobs, "running", false, null );
+        assertTrue( purgeOldJobs.isOverBudget() );
+
+        purgeOldJobs.evictOverBudget();
+
+        assertEquals( complete.subList( 0, 4 ), purged );
+        assertEquals( 4, purgeOldJobs.getEvicted() );
+        assertFalse( purgeOldJobs.isOverBudget() );
+        assertSame( complete.get( 4 ), savedJobs.get( "job-5" ) );
+        assertSame( running, savedJobs.get( "running" ) );
+    }
+
+    @Test
+    public void keepsRecentlyUsedJobsOverBudget() {
+        long now = System.currentTimeMillis();
+        IDRBindJob probe = job( "probe", true, now );
+        PurgeOldJobs purgeOldJobs = new PurgeOldJobs( savedJobs, purged::add, 60000, probe.approximateSize(), HOUR, 10 * MINUTE );
+        IDRBindJob old = save( purgeOldJobs, "old", true, now + HOUR - 20 * MINUTE );
+        save( purgeOldJobs, "recent", true, now + HOUR - MINUTE );
+        save( purgeOldJobs, "running", false, null );
+        assertTrue( purgeOldJobs.isOverBudget() );
+
+        purgeOldJobs.evictOverBudget();
+        purgeOldJobs.run();
+
+        assertEquals( Collections.singletonList( old ), purged );
+        assertTrue( purgeOldJobs.isOverBudget() );
+        assertEquals( 2, savedJobs.size() );
+    }
+
+    private IDRBindJob save( PurgeOldJobs purgeOldJobs, String jobId, boolean complete, Long expires ) {
+        IDRBindJob job = job( jobId, complete, expires );
+        job.setSaved( true );
+        savedJobs.put( jobId, job );
+        purgeOldJobs.schedule( job );
+        return job;
+    }
+
+}
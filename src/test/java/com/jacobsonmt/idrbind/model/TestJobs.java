@@ -0,0 +1,33 @@
+package com.jacobsonmt.idrbind.model;
+
+// Jobs for unit tests, labelled with their id and all belonging to the same user
+public final class TestJobs {
+
+    public static final String USER = "user";
+
+    private TestJobs() {
+    }
+
+    public static IDRBindJob job( String jobId ) {
+        return IDRBindJob.builder()
+                .jobId( jobId )
+                .label( jobId )
+                .userId( USER )
+                .email( USER + "@example.com" )
+                .build();
+    }
+
+    public static IDRBindJob job( String jobId, boolean complete ) {
+        IDRBindJob job = job( jobId );
+        job.setComplete( complete );
+        job.setStatus( complete ? "Completed in 1s" : "Processing" );
+        return job;
+    }
+
+    public static IDRBindJob job( String jobId, boolean complete, Long saveExpiredDate ) {
+        IDRBindJob job = job( jobId, complete );
+        job.setSaveExpiredDate( saveExpiredDate );
+        return job;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.jacobsonmt.idrbind.model.TestJobs.job;
+import static org.junit.Assert.*;
+
+public class FairShareSchedulingPolicyTest {
+
+    private final IDRBindJob job = job( "job" );
+
+    @Test
+    public void dispatchesFollowWeights() {
+        Map<String, Double> weights = new HashMap<>();
+        weights.put( "heavy", 3.0 );
+        weights.put( "light", 0.5 );
+        FairShareSchedulingPolicy policy = new FairShareSchedulingPolicy( weights, 1.0 );
+        policy.enqueued( "heavy" );
+        policy.enqueued( "default" );
+        policy.enqueued( "light" );
+
+        Map<String, Integer> dispatches = new HashMap<>();
+        for ( int i = 0; i < 900; i++ ) {
+            String userId = policy.nextUser( u -> job, u -> true );
+            policy.dispatched( userId, job );
+            dispatches.merge( userId, 1, Integer::sum );
+        }
+
+        // 3 : 1 : 0.5 of 900
+        assertEquals( 600, dispatches.get( "heavy" ), 2 );
+        assertEquals( 200, dispatches.get( "default" ), 2 );
+        assertEquals( 100, dispatches.get( "light" ), 2 );
+    }
+
+    @Test
+    public void tinyWeightStillDispatches() {
+        Map<String, Double> weights = new HashMap<>();
+        weights.put( "tiny", 1e-9 );
+        FairShareSchedulingPolicy policy = new FairShareSchedulingPolicy( weights, 1.0 );
+        policy.enqueued( "tiny" );
+        policy.enqueued( "blocked" );
+
+        assertEquals( "tiny", policy.nextUser( u -> job, "tiny"::equals ) );
+        assertNull( policy.nextUser( u -> job, u -> false ) );
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import com.jacobsonmt.idrbind.settings.ApplicationSettings;
+import com.jacobsonmt.idrbind.settings.SiteSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.mail.internet.MimeMessage;
+
+import static com.jacobsonmt.idrbind.model.TestJobs.job;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationQueueTest {
+
+    private GreenMail smtp;
+    private NotificationQueue notificationQueue;
+
+    @Before
+    public void setUp() {
+        smtp = new GreenMail( ServerSetupTest.SMTP );
+
+        ApplicationSettings applicationSettings = new ApplicationSettings();
+        applicationSettings.setEmailBatchSize( 10 );
+        applicationSettings.setEmailRetryBackoffSeconds( 1 );
+        applicationSettings.setEmailMaxAttempts( 5 );
+
+        SiteSettings siteSettings = new SiteSettings();
+        siteSettings.setHost( "http://localhost" );
+        siteSettings.setContext( "" );
+        siteSettings.setAdminEmail( "admin@example.com" );
+
+        JavaMailSenderImpl emailSender = new JavaMailSenderImpl();
+        emailSender.setHost( "localhost" );
+        emailSender.setPort( ServerSetupTest.SMTP.getPort() );
+
+        EmailService emailService = new EmailService();
+        ReflectionTestUtils.setField( emailService, "emailSender", emailSender );
+        ReflectionTestUtils.setField( emailService, "siteSettings", siteSettings );
+
+        notificationQueue = new NotificationQueue();
+        ReflectionTestUtils.setField( notificationQueue, "applicationSettings", applicationSettings );
+        ReflectionTestUtils.setField( notificationQueue, "emailService", emailService );
+        ReflectionTestUtils.setField( notificationQueue, "meterRegistry", new SimpleMeterRegistry() );
+        ReflectionTestUtils.invokeMethod( notificationQueue, "initialize" );
+    }
+
+    @After
+    public void tearDown() {
+        notificationQueue.destroy();
+        smtp.stop();
+    }
+
+    @Test
+    public void sendsCompletionMessages() {
+        smtp.start();
+
+        for ( int i = 0; i < 5; i++ ) {
+            notificationQueue.jobCompleted( job( "job-" + i, true ) );
+        }
+
+        assertTrue( smtp.waitForIncomingEmail( 5000, 5 ) );
+        assertEquals( 5, smtp.getReceivedMessages().length );
+    }
+
+    @Test
+    public void skipsStartMessageOfCompletedJob() throws Exception {
+        smtp.start();
+
+        IDRBindJob job = job( "job-1", true );
+        notificationQueue.jobStarted( job );
+        notificationQueue.jobCompleted( job );
+
+        assertTrue( smtp.waitForIncomingEmail( 5000, 1 ) );
+        // Give a wrongly sent start message time to arrive
+        Thread.sleep( 500 );
+
+        MimeMessage[] received = smtp.getReceivedMessages();
+        assertEquals( 1, received.length );
+        assertEquals( "IDB Bind - Job Complete", received[0].getSubject() );
+        assertEquals( 1, notificationQueue.getSkipped() );
+    }
+
+    @Test
+    public void retriesUntilServerIsUp() throws Exception {
+        // Nothing listening yet, the first attempt fails
+        notificationQueue.jobCompleted( job( "job-1", true ) );
+        Thread.sleep( 500 );
+
+        smtp.start();
+
+        assertTrue( smtp.waitForIncomingEmail( 10000, 1 ) );
+        assertEquals( 1, smtp.getReceivedMessages().length );
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.jacobsonmt.idrbind.services;
+
+import com.jacobsonmt.idrbind.model.IDRBindJob;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.jacobsonmt.idrbind.model.TestJobs.job;
+import static org.junit.Assert.assertEquals;
+
+public class PublicJobViewTest {
+
+    private static final LocalDate DAY = LocalDate.of( 2026, 10, 1 );
+
+    private final PublicJobView view = new PublicJobView();
+
+    @Before
+    public void setUp() {
+        // job-1 the oldest, one a day, odd ones complete
+        for ( int i = 1; i <= 6; i++ ) {
+            IDRBindJob job = job( "job-" + i, i % 2 == 1 );
+            job.setLabel( ( i <= 3 ? "alpha-" : "beta-" ) + i );
+            job.setHidden( false );
+            job.setSubmittedDate( Date.from( DAY.plusDays( i ).atStartOfDay( ZoneId.systemDefault() ).toInstant() ) );
+            view.update( job );
+        }
+    }
+
+    @Test
+    public void pagesContinueAfterTheLastJob() {
+        PublicJobView.Page first = query( null, null, null, null, PublicJobView.SortColumn.SUBMITTED, null, 4 );
+        assertEquals( Arrays.asList( "job-6", "job-5", "job-4", "job-3" ), ids( first ) );
+        assertEquals( 6, first.getFiltered() );
+
+        // A job submitted meanwhile doesn't move the next page
+        IDRBindJob newest = job( "job-7" );
+        newest.setHidden( false );
+        newest.setSubmittedDate( new Date() );
+        view.update( newest );
+
+        PublicJobView.Page second = query( null, null, null, null, PublicJobView.SortColumn.SUBMITTED, "job-3", 4 );
+        assertEquals( Arrays.asList( "job-2", "job-1" ), ids( second ) );
+        assertEquals( 7, second.getTotal() );
+    }
+
+    @Test
+    public void countsMatchTheFilters() {
+        PublicJobView.Page completed = query( PublicJobView.State.COMPLETED, null, DAY.plusDays( 2 ), DAY.plusDays( 5 ),
+                PublicJobView.SortColumn.SUBMITTED, null, 10 );
+        assertEquals( Arrays.asList( "job-5", "job-3" ), ids( completed ) );
+        assertEquals( 2, completed.getFiltered() );
+        assertEquals( 6, completed.getTotal() );
+
+        PublicJobView.Page labelled = query( null, "ALPHA", DAY.plusDays( 2 ), null, PublicJobView.SortColumn.LABEL, "job-2", 10 );
+        assertEquals( Arrays.asList( "job-3" ), ids( labelled ) );
+        assertEquals( 2, labelled.getFiltered() );
+
+        PublicJobView.Page dated = query( null, null, null, DAY.plusDays( 3 ), PublicJobView.SortColumn.LABEL, "job-1", 10 );
+        assertEquals( Arrays.asList( "job-2", "job-3" ), ids( dated ) );
+        assertEquals( 3, dated.getFiltered() );
+    }
+
+    private PublicJobView.Page query( PublicJobView.State state, String label, LocalDate from, LocalDate to,
+                                      PublicJobView.SortColumn sort, String after, int length ) {
+        return view.query( state, label, from, to, sort, sort == PublicJobView.SortColumn.LABEL, after, 0, length );
+    }
+
+    private static List<String> ids( PublicJobView.Page page ) {
+        return page.getRows().stream().map( IDRBindJob.IDRBindJobVO::getJobId ).collect( Collectors.toList() );
+    }
+
+}